@@ -2,18 +2,25 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.exception.film.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exception.film.InvalidReleaseDateException;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.utility.JsonArrayStreamer;
+import ru.yandex.practicum.filmorate.utility.Pagination;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import javax.validation.Valid;
 import java.time.LocalDate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/films")
@@ -22,10 +29,12 @@ public class FilmController {
 
     private static final LocalDate BIRTH_OF_CINEMA = LocalDate.of(1895, 12, 28);
     private final FilmService filmService;
+    private final JsonArrayStreamer jsonArrayStreamer;
 
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, JsonArrayStreamer jsonArrayStreamer) {
         this.filmService = filmService;
+        this.jsonArrayStreamer = jsonArrayStreamer;
     }
 
     @PostMapping
@@ -50,9 +59,21 @@ public class FilmController {
         });
     }
 
+    @GetMapping(params = {"!cursor", "!limit"})
+    public ResponseEntity<StreamingResponseBody> getFilms(@RequestParam(defaultValue = "full") String view) {
+        View parsedView = View.parse(view);
+        // Фильмы пишутся в ответ по мере загрузки из бд, а не после сборки всего списка
+        return jsonArrayStreamer.stream(parsedView,
+                (Consumer<Film> consumer) -> filmService.streamFilms(parsedView, consumer));
+    }
+
     @GetMapping
-    public Collection<Film> getFilms() {
-        return filmService.getFilms();
+    public ResponseEntity<MappingJacksonValue> getFilmsPage(@RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "100") int limit,
+                                                            @RequestParam(defaultValue = "full") String view) {
+        View parsedView = View.parse(view);
+        // Курсор следующей страницы возвращается в заголовке X-Next-Cursor
+        return Pagination.toResponse(filmService.getFilmsPage(cursor, limit, parsedView), parsedView);
     }
 
     @GetMapping("/{filmId}")
@@ -89,14 +110,16 @@ public class FilmController {
     @GetMapping("/director/{directorId}")
     public List<Film> getFilmsByDirectorId(
             @PathVariable int directorId,
-            @RequestParam(value = "sortBy", defaultValue = "likes") String sort) {
-        // GET /films/director/{directorId}?sortBy=[year,likes]
+            @RequestParam(value = "sortBy", defaultValue = "likes") String sort,
+            @RequestParam(required = false) Integer count,
+            @RequestParam(defaultValue = "0") int offset) {
+        // GET /films/director/{directorId}?sortBy=[year,likes]&count={count}&offset={offset}
 
         log.info("Вызван GET запрос для получения списка фильмов по режиссеру.");
         log.debug("Передан идентификатор режисера {},", directorId);
 
 
-        return filmService.getFilmsByDirectorId(directorId, sort);
+        return filmService.getFilmsByDirectorId(directorId, sort, count, offset);
     }
 
     @GetMapping("/search")
@@ -105,6 +128,14 @@ public class FilmController {
         return filmService.searchByTitleByDirector(query, by);
     }
 
+    // Подсказки для строки поиска, например GET /films/search/suggestions?query=пулп%20фи
+    @GetMapping("/search/suggestions")
+    public List<String> getSearchSuggestions(@RequestParam String query,
+                                             @RequestParam(defaultValue = "title,director") List<String> by,
+                                             @RequestParam(defaultValue = "10") int count) {
+        return filmService.getSearchSuggestions(query, by, count);
+    }
+
     @DeleteMapping("/{filmId}")
     public void deleteFilm(@PathVariable int filmId) {
         filmService.deleteFilm(filmId).orElseThrow(() -> {
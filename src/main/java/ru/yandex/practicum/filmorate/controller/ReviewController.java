@@ -2,10 +2,12 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import ru.yandex.practicum.filmorate.exception.Review.ReviewNotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.service.ReviewService;
+import ru.yandex.practicum.filmorate.utility.Pagination;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -47,9 +49,16 @@ public class ReviewController {
     }
 
     @GetMapping
-    public List<Review> getAllReviewsByFilmId(@RequestParam(required = false) Integer filmId,
-                                              @RequestParam(required = false, defaultValue = "10") int count) {
-        return reviewService.getReviewsByFilmId(filmId, count);
+    public ResponseEntity<List<Review>> getAllReviewsByFilmId(@RequestParam(required = false) Integer filmId,
+                                                              @RequestParam(required = false, defaultValue = "10") int count,
+                                                              @RequestParam(required = false) Integer limit,
+                                                              @RequestParam(required = false) String cursor) {
+        // Курсор следующей страницы возвращается в заголовке X-Next-Cursor.
+        // Размер страницы задаётся limit, а без него старым параметром count
+        if (limit == null) {
+            return Pagination.toResponse(reviewService.getReviewsPageByCount(filmId, cursor, count));
+        }
+        return Pagination.toResponse(reviewService.getReviewsPage(filmId, cursor, limit));
     }
 
     @PutMapping("/{reviewId}/like/{userId}")
@@ -2,7 +2,10 @@ package ru.yandex.practicum.filmorate.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.filmorate.exception.user.EqualIdentifierException;
 import ru.yandex.practicum.filmorate.exception.user.InvalidLoginException;
 import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
@@ -11,11 +14,14 @@ import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
 import ru.yandex.practicum.filmorate.service.EventService;
 import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.utility.JsonArrayStreamer;
+import ru.yandex.practicum.filmorate.utility.Pagination;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import javax.validation.Valid;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/users")
@@ -24,11 +30,13 @@ public class UserController {
 
     private final UserService userService;
     private final EventService eventService;
+    private final JsonArrayStreamer jsonArrayStreamer;
 
     @Autowired
-    public UserController(UserService userService, EventService eventService) {
+    public UserController(UserService userService, EventService eventService, JsonArrayStreamer jsonArrayStreamer) {
         this.userService = userService;
         this.eventService = eventService;
+        this.jsonArrayStreamer = jsonArrayStreamer;
     }
 
     @PostMapping()
@@ -53,9 +61,21 @@ public class UserController {
         });
     }
 
+    @GetMapping(params = {"!cursor", "!limit"})
+    public ResponseEntity<StreamingResponseBody> getUsers(@RequestParam(defaultValue = "full") String view) {
+        View parsedView = View.parse(view);
+        // Пользователи пишутся в ответ по мере загрузки из бд, а не после сборки всего списка
+        return jsonArrayStreamer.stream(parsedView,
+                (Consumer<User> consumer) -> userService.streamUsers(parsedView, consumer));
+    }
+
     @GetMapping()
-    public Collection<User> getUsers() {
-        return userService.getUsers();
+    public ResponseEntity<MappingJacksonValue> getUsersPage(@RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "100") int limit,
+                                                            @RequestParam(defaultValue = "full") String view) {
+        View parsedView = View.parse(view);
+        // Курсор следующей страницы возвращается в заголовке X-Next-Cursor
+        return Pagination.toResponse(userService.getUsersPage(cursor, limit, parsedView), parsedView);
     }
 
     @GetMapping("/{id}")
@@ -90,24 +110,21 @@ public class UserController {
     }
 
     @GetMapping("/{id}/friends")
-    public Collection<User> getFriends(@PathVariable int id) {
-
-        Optional<User> optionalUser = userService.getUserById(id);
+    public MappingJacksonValue getFriends(@PathVariable int id, @RequestParam(defaultValue = "full") String view) {
 
-        if (optionalUser.isEmpty()) {
+        if (!userService.existsUser(id)) {
             throw new UserNotFoundException("User not found");
         }
 
-        return userService.getFriends(id);
+        View parsedView = View.parse(view);
+        // В виде summary в ответ попадают только поля, отмеченные Views.Summary, без лайков и друзей
+        return parsedView.wrap(userService.getFriends(id, parsedView));
     }
 
     @GetMapping("/{id}/friends/common/{otherId}")
     public Collection<User> getCommonFriends(@PathVariable int id, @PathVariable int otherId) {
 
-        Optional<User> optionalUser = userService.getUserById(id);
-        Optional<User> optionalOther = userService.getUserById(otherId);
-
-        if (optionalUser.isEmpty() || optionalOther.isEmpty()) {
+        if (!userService.existsUser(id) || !userService.existsUser(otherId)) {
             throw new UserNotFoundException("One of the users not found");
         }
 
@@ -132,7 +149,16 @@ public class UserController {
 
 
     @GetMapping("/{id}/feed")
-    public List<Event> getFeed(@PathVariable int id) {
-        return eventService.getFeed(id);
+    public ResponseEntity<List<Event>> getFeed(@PathVariable int id,
+                                               @RequestParam(required = false) String cursor,
+                                               @RequestParam(required = false) Integer limit,
+                                               @RequestParam(required = false) Long before) {
+        // Без параметров лента отдаётся целиком
+        if (cursor == null && limit == null && before == null) {
+            return ResponseEntity.ok(eventService.getFeed(id));
+        }
+        // Страницы идут от новых событий к старым. before (в миллисекундах) задаёт начало первой страницы,
+        // а следующие запрашиваются по курсору из заголовка ответа
+        return Pagination.toResponse(eventService.getFeedPage(id, cursor, before, limit == null ? 100 : limit));
     }
 }
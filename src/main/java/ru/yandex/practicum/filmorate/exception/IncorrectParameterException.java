@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.exception;
+
+public class IncorrectParameterException extends RuntimeException {
+    public IncorrectParameterException(String message) {
+        super(message);
+    }
+}
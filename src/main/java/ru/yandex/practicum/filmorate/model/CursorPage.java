@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class CursorPage<T> {
+    private final List<T> items;
+    // Курсор для запроса следующей страницы. null, если это последняя страница
+    private final String nextCursor;
+}
@@ -1,5 +1,7 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonMerge;
+import com.fasterxml.jackson.annotation.JsonView;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -9,23 +11,32 @@ import javax.validation.constraints.Positive;
 import javax.validation.constraints.Size;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 @Data
 @Builder
 @AllArgsConstructor
 public class Film {
+    @JsonView(Views.Summary.class)
     private int id;
+    @JsonView(Views.Summary.class)
     @NotBlank(message = "Name can't be blank")
     private String name;
+    @JsonView(Views.Summary.class)
     @Size(max = 200, message = "description should be 200 symbols or less")
     private String description;
+    @JsonView(Views.Summary.class)
     private LocalDate releaseDate;
+    @JsonView(Views.Summary.class)
     @Positive(message = "Duration can't be zero or negative")
     private int duration; // В минутах
+    @JsonView(Views.Summary.class)
     private Mpa mpa;
+    @JsonView(Views.Summary.class)
     private final ArrayList<Director> directors = new ArrayList<>();
+    @JsonView(Views.Summary.class)
     private final List<Genre> genres = new ArrayList<>();
-    private final HashSet<Like> likes = new HashSet<>();
+    // Лайки из JSON добавляются в это множество, а не в новое: у LikeSet нет конструктора для Jackson
+    @JsonMerge
+    private final LikeSet likes = LikeSet.byUser();
 }
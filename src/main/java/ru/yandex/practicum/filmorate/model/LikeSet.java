@@ -0,0 +1,235 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Множество лайков, которое хранит айди в массивах int, а не в объектах Like.
+// Объекты Like создаются только при обходе множества, например, при сериализации в JSON.
+// Лайки отсортированы по ключу: у фильма ключ - айди пользователя, у пользователя - айди фильма,
+// поэтому проверка наличия лайка работает через бинарный поиск.
+// Вторая сторона лайка у всех элементов одна (сам фильм или пользователь), поэтому она хранится одним полем
+public class LikeSet extends AbstractSet<Like> {
+
+    private static final int[] EMPTY = new int[0];
+
+    // true - ключ айди пользователя, false - айди фильма
+    private final boolean keyedByUser;
+
+    private int[] keys = EMPTY;
+    private int[] likeIds = EMPTY;
+    // Айди фильма для лайков фильма или айди пользователя для лайков пользователя
+    private int owner;
+    private int size;
+    // true - массивы общие с другим множеством, и перед изменением их нужно скопировать
+    private boolean shared;
+
+    // Счётчик изменений, чтобы итератор мог заметить изменение множества во время обхода
+    private int modCount;
+
+    private LikeSet(boolean keyedByUser) {
+        this.keyedByUser = keyedByUser;
+    }
+
+    // Лайки фильма, ключ - айди пользователя
+    public static LikeSet byUser() {
+        return new LikeSet(true);
+    }
+
+    // Лайки пользователя, ключ - айди фильма
+    public static LikeSet byFilm() {
+        return new LikeSet(false);
+    }
+
+    // Заменяет лайки на лайки source без копирования массивов, например для копии фильма из кэша.
+    // Массивы копируются при первом изменении любого из двух множеств
+    public void shareFrom(LikeSet source) {
+        if (source.keyedByUser != keyedByUser) {
+            throw new IllegalArgumentException("Like sets have different keys");
+        }
+        keys = source.keys;
+        likeIds = source.likeIds;
+        owner = source.owner;
+        size = source.size;
+        shared = true;
+        source.shared = true;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Like)) {
+            return false;
+        }
+        Like like = (Like) o;
+        return indexOf(like) >= 0;
+    }
+
+    // Есть ли в множестве лайк с таким ключом, без создания объектов Like
+    public boolean containsKey(int key) {
+        int index = lowerBound(key);
+        return index < size && keys[index] == key;
+    }
+
+    @Override
+    public boolean add(Like like) {
+        if (size > 0 && ownerOf(like) != owner) {
+            throw new IllegalArgumentException("Like " + like + " does not belong to this like set");
+        }
+        int key = keyOf(like);
+
+        // Лайки из бд приходят отсортированными по ключу, и для них это просто добавление в конец
+        int index = lowerBound(key);
+        for (int i = index; i < size && keys[i] == key; i++) {
+            if (likeIds[i] == like.getLikeId()) {
+                return false;
+            }
+        }
+
+        if (shared) {
+            unshare(Math.max(size + 1, likeIds.length));
+        }
+        if (size == likeIds.length) {
+            int capacity = Math.max(4, size + (size >> 1));
+            keys = Arrays.copyOf(keys, capacity);
+            likeIds = Arrays.copyOf(likeIds, capacity);
+        }
+        if (index < size) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            System.arraycopy(likeIds, index, likeIds, index + 1, size - index);
+        }
+        keys[index] = key;
+        likeIds[index] = like.getLikeId();
+        owner = ownerOf(like);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Like)) {
+            return false;
+        }
+        Like like = (Like) o;
+        int index = indexOf(like);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        if (shared) {
+            unshare(0);
+        }
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<Like> iterator() {
+        return new Iterator<>() {
+            private int cursor;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            @Override
+            public Like next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (cursor >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = cursor++;
+                return keyedByUser
+                        ? new Like(likeIds[last], owner, keys[last])
+                        : new Like(likeIds[last], keys[last], owner);
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                removeAt(last);
+                cursor = last;
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    private int keyOf(Like like) {
+        return keyedByUser ? like.getUserId() : like.getFilmId();
+    }
+
+    private int ownerOf(Like like) {
+        return keyedByUser ? like.getFilmId() : like.getUserId();
+    }
+
+    // Первая позиция, ключ на которой не меньше key
+    private int lowerBound(int key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(Like like) {
+        if (size == 0 || ownerOf(like) != owner) {
+            return -1;
+        }
+        int key = keyOf(like);
+        for (int i = lowerBound(key); i < size && keys[i] == key; i++) {
+            if (likeIds[i] == like.getLikeId()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        if (shared) {
+            unshare(likeIds.length);
+        }
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(likeIds, index + 1, likeIds, index, moved);
+        }
+        size--;
+        modCount++;
+    }
+
+    private void unshare(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        likeIds = Arrays.copyOf(likeIds, capacity);
+        shared = false;
+    }
+}
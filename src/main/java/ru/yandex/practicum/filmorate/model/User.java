@@ -1,5 +1,7 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonMerge;
+import com.fasterxml.jackson.annotation.JsonView;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -15,14 +17,21 @@ import java.util.HashSet;
 @AllArgsConstructor
 
 public class User {
+    @JsonView(Views.Summary.class)
     private int id;
+    @JsonView(Views.Summary.class)
     @Email(message = "Email should be valid")
     private String email;
+    @JsonView(Views.Summary.class)
     @NotBlank(message = "Login can't be blank")
     private String login;
+    @JsonView(Views.Summary.class)
     private String name;
+    @JsonView(Views.Summary.class)
     @PastOrPresent(message = "Birthday should be before current time")
     private LocalDate birthday;
     private final HashSet<FriendShip> friendShips = new HashSet<>();
-    private final HashSet<Like> likes = new HashSet<>();
+    // Лайки из JSON добавляются в это множество, а не в новое: у LikeSet нет конструктора для Jackson
+    @JsonMerge
+    private final LikeSet likes = LikeSet.byFilm();
 }
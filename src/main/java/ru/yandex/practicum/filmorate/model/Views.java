@@ -0,0 +1,7 @@
+package ru.yandex.practicum.filmorate.model;
+
+// Маркеры для @JsonView. Поля без маркера не попадают в ответ, который сериализуется с видом Summary
+public class Views {
+    public interface Summary {
+    }
+}
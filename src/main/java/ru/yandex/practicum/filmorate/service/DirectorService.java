@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.cache.FilmCache;
 
 import java.util.List;
 
@@ -19,6 +20,11 @@ public class DirectorService {
      */
     private final DirectorStorage directorStorage;
 
+    /**
+     * Поле кэша фильмов, в котором фильмы лежат вместе с режисерами
+     */
+    private final FilmCache filmCache;
+
 
     /**
      * Метод получения всех режисеров
@@ -65,7 +71,11 @@ public class DirectorService {
             throw new NotFoundException(String.format("Режисер с идентификатором %s не найден", id));
         }
 
-        return directorStorage.updateDirector(director);
+        Director updatedDirector = directorStorage.updateDirector(director);
+        // Фильмы убираются из кэша по айди: Caffeine дождётся загрузки фильма, которая началась до изменения,
+        // и уберёт и её результат
+        filmCache.invalidateFilms(directorStorage.getDirectorFilmIds(id));
+        return updatedDirector;
     }
 
     /**
@@ -75,7 +85,10 @@ public class DirectorService {
      */
     public void removeDirector(int id) {
         if (directorStorage.isDirectorPresent(id)) {
+            // Связи с фильмами удалятся каскадно, поэтому фильмы режисера читаются до удаления
+            List<Integer> filmIds = directorStorage.getDirectorFilmIds(id);
             directorStorage.removeDirector(id);
+            filmCache.invalidateFilms(filmIds);
         }
     }
 }
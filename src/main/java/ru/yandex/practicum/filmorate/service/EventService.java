@@ -1,24 +1,147 @@
 package ru.yandex.practicum.filmorate.service;
 
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.storage.event.EventStorage;
 import ru.yandex.practicum.filmorate.utility.EventOperation;
 import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.FeedWriteMode;
+import ru.yandex.practicum.filmorate.utility.Pagination;
 
+import javax.annotation.PreDestroy;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class EventService {
+    private static final int RETENTION_BATCH_SIZE = 10000;
+
     private final EventStorage eventDbStorage;
 
+    private final FeedWriteMode writeMode;
+    private final int batchSize;
+    // Сколько запрос ждёт записи своего события. Если не дождался, получает ошибку
+    private final long awaitTimeoutMs;
+    // Сколько дней хранятся события в FEED. 0 - хранятся всегда
+    private final int retentionDays;
+
+    // Очередь событий, которые ещё не записаны в FEED. Не используется в режиме SYNC
+    private final BlockingQueue<PendingEvent> queue;
+    // Количество событий, которые попали в очередь, но ещё не записаны
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    // Единственный поток, который пишет события из очереди в FEED. Поэтому события пишутся в порядке очереди
+    // и без блокировок. Не используется в режиме SYNC
+    private final ScheduledExecutorService writer;
+    // true - запись очереди уже поставлена в поток записи
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    @Autowired
+    public EventService(EventStorage eventDbStorage,
+                        @Value("${filmorate.feed.write-mode:group-commit}") String writeMode,
+                        @Value("${filmorate.feed.batch-size:500}") int batchSize,
+                        @Value("${filmorate.feed.flush-interval-ms:50}") long flushIntervalMs,
+                        @Value("${filmorate.feed.queue-capacity:10000}") int queueCapacity,
+                        @Value("${filmorate.feed.retention-days:0}") int retentionDays,
+                        @Value("${filmorate.feed.await-timeout-ms:5000}") long awaitTimeoutMs) {
+        this.eventDbStorage = eventDbStorage;
+        this.retentionDays = retentionDays;
+        this.writeMode = FeedWriteMode.parse(writeMode);
+        this.batchSize = batchSize;
+        this.awaitTimeoutMs = awaitTimeoutMs;
+
+        if (this.writeMode == FeedWriteMode.SYNC) {
+            this.queue = null;
+            this.writer = null;
+        } else {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "feed-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (this.writeMode == FeedWriteMode.ASYNC) {
+                // Пакет пишется, когда наберётся batchSize событий или раз в flushIntervalMs
+                this.writer.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
     public List<Event> getFeed(int userId) {
+        awaitPendingEvents();
         return eventDbStorage.getFeed(userId);
     }
 
+    // Страница ленты от новых событий к старым в порядке timestamp и айди события.
+    // Курсор хранит timestamp и айди последнего события страницы. Без курсора страница начинается
+    // с самых новых событий, а если задан before - с событий строго старше before (в миллисекундах)
+    public CursorPage<Event> getFeedPage(int userId, String cursor, Long before, int limit) {
+        Pagination.checkLimit(limit);
+        if (cursor != null && before != null) {
+            throw new IncorrectParameterException("Parameters before and cursor can't be used together");
+        }
+        long[] lastEvent;
+        if (cursor != null) {
+            lastEvent = Pagination.decodeLongCursor(cursor, 2);
+        } else if (before != null) {
+            lastEvent = new long[]{before, 0};
+        } else {
+            lastEvent = new long[]{Long.MAX_VALUE, Integer.MAX_VALUE};
+        }
+        if (lastEvent[1] != (int) lastEvent[1]) {
+            throw new IncorrectParameterException("Invalid cursor");
+        }
+
+        awaitPendingEvents();
+        // Запрашиваю на 1 событие больше, чтобы узнать, есть ли следующая страница
+        List<Event> events = eventDbStorage.getFeed(userId, lastEvent[0], (int) lastEvent[1], limit + 1);
+        return Pagination.page(events, limit, event -> new long[]{event.getTimestamp(), event.getEventId()});
+    }
+
+    // Удаляет события старше срока хранения. Удаление идёт пачками, чтобы не блокировать FEED надолго
+    @Scheduled(initialDelayString = "${filmorate.feed.retention-interval-ms:86400000}",
+            fixedDelayString = "${filmorate.feed.retention-interval-ms:86400000}")
+    public int deleteExpiredEvents() {
+        if (retentionDays <= 0) {
+            return 0;
+        }
+        awaitPendingEvents();
+
+        long before = Instant.now().minus(retentionDays, ChronoUnit.DAYS).toEpochMilli();
+        int deletedEvents = 0;
+        int deletedInBatch;
+        do {
+            deletedInBatch = eventDbStorage.deleteEventsBefore(before, RETENTION_BATCH_SIZE);
+            deletedEvents += deletedInBatch;
+        } while (deletedInBatch == RETENTION_BATCH_SIZE);
+
+        if (deletedEvents > 0) {
+            log.info("Из ленты удалено {} событий старше {} дней", deletedEvents, retentionDays);
+        }
+        return deletedEvents;
+    }
+
     public void createEvent(int userId, EventType eventType, EventOperation eventOperation, int entityId) {
         Event event = Event.builder()
                 .timestamp(Instant.now().toEpochMilli())
@@ -27,6 +150,208 @@ public class EventService {
                 .operation(eventOperation)
                 .entityId(entityId)
                 .build();
-        eventDbStorage.createEvent(event);
+
+        if (writeMode == FeedWriteMode.SYNC) {
+            eventDbStorage.createEvent(event);
+            return;
+        }
+
+        // Проверка до очереди, чтобы ошибку получил запрос и в режиме ASYNC
+        eventDbStorage.checkEvent(event);
+        CompletableFuture<Void> written = writeMode == FeedWriteMode.GROUP_COMMIT ? new CompletableFuture<>() : null;
+        PendingEvent pendingEvent = new PendingEvent(event, written);
+        pendingCount.incrementAndGet();
+        enqueue(pendingEvent);
+
+        if (writer.isShutdown() && queue.remove(pendingEvent)) {
+            // Приложение останавливается, и остаток очереди может быть уже записан. Поток записи больше не пишет,
+            // поэтому событие, которое ещё в очереди, записывается в потоке запроса
+            pendingCount.decrementAndGet();
+            eventDbStorage.createEvent(event);
+            return;
+        }
+        if (writeMode == FeedWriteMode.GROUP_COMMIT || queue.size() >= batchSize) {
+            requestFlush();
+        }
+
+        if (written != null) {
+            await(pendingEvent);
+        }
+    }
+
+    // Записывает все события из очереди и останавливает поток записи при остановке приложения
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.error("Поток записи ленты не остановился за 30 секунд, в очереди {} событий", queue.size());
+                return;
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            log.error("Остановка записи ленты прервана, в очереди {} событий", queue.size());
+            return;
+        }
+
+        // Поток записи остановлен, поэтому остаток очереди можно записать здесь
+        flush();
+    }
+
+    // Добавляет событие в очередь. Если очередь заполнена, ждёт, пока поток записи её разберёт.
+    // Прерывание не отменяет добавление: событие не должно потеряться, флаг прерывания восстанавливается после
+    private void enqueue(PendingEvent pendingEvent) {
+        boolean interrupted = false;
+        while (!queue.offer(pendingEvent)) {
+            requestFlush();
+            try {
+                if (queue.offer(pendingEvent, 100, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Ставит запись очереди в поток записи, если она ещё не поставлена
+    private void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            writer.execute(this::flush);
+        } catch (RejectedExecutionException exception) {
+            // Приложение останавливается: остаток очереди запишет shutdown
+            flushRequested.set(false);
+        }
+    }
+
+    // Ждёт, пока события, которые уже в очереди, будут записаны, чтобы лента их показала
+    private void awaitPendingEvents() {
+        if (writeMode == FeedWriteMode.SYNC || pendingCount.get() == 0) {
+            return;
+        }
+        // Поток записи один, поэтому эта запись закончится после записи всех событий, которые были в очереди до неё
+        Future<?> flushed;
+        try {
+            flushed = writer.submit(this::flush);
+        } catch (RejectedExecutionException exception) {
+            return;
+        }
+
+        try {
+            flushed.get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exception) {
+            log.warn("События ленты не записаны за {} мс, лента отдаётся без них", awaitTimeoutMs);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            log.error("Не удалось записать события в ленту", exception.getCause());
+        }
+    }
+
+    // Пишет очередь пакетами по batchSize событий. Вызывается только в потоке записи или после его остановки
+    private void flush() {
+        flushRequested.set(false);
+        List<PendingEvent> batch = new ArrayList<>();
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    private void write(List<PendingEvent> batch) {
+        List<Event> events = new ArrayList<>();
+        for (PendingEvent pendingEvent : batch) {
+            events.add(pendingEvent.event);
+        }
+
+        try {
+            eventDbStorage.createEvents(events);
+            batch.forEach(pendingEvent -> pendingEvent.complete(null));
+        } catch (RuntimeException exception) {
+            // Пакет не записался, например из-за одного события с неверным пользователем, и откатился целиком.
+            // Тогда события пишутся по одному, и ошибку получает только автор неверного события
+            for (PendingEvent pendingEvent : batch) {
+                try {
+                    eventDbStorage.createEvent(pendingEvent.event);
+                    pendingEvent.complete(null);
+                } catch (RuntimeException eventException) {
+                    log.warn("Событие {} не записано в ленту: {}", pendingEvent.event, eventException.getMessage());
+                    pendingEvent.complete(eventException);
+                }
+            }
+        } finally {
+            pendingCount.addAndGet(-events.size());
+        }
+    }
+
+    // Ждёт записи события не дольше awaitTimeoutMs. Если за это время поток записи не взял событие,
+    // оно убирается из очереди, и запрос получает ошибку: событие точно не попадёт в ленту.
+    // Если событие уже пишется, запрос дожидается результата записи, чтобы не сообщить об ошибке,
+    // которой не было
+    private void await(PendingEvent pendingEvent) {
+        try {
+            pendingEvent.written.get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+            return;
+        } catch (ExecutionException exception) {
+            throw toRuntimeException(exception.getCause());
+        } catch (TimeoutException exception) {
+            withdraw(pendingEvent, "Event is not written to the feed in " + awaitTimeoutMs + " ms");
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            withdraw(pendingEvent, "Interrupted while waiting for the feed event to be written");
+        }
+
+        try {
+            pendingEvent.written.join();
+        } catch (CompletionException exception) {
+            throw toRuntimeException(exception.getCause());
+        }
+    }
+
+    // Убирает событие из очереди и бросает ошибку. Если поток записи уже забрал событие, ничего не делает
+    private void withdraw(PendingEvent pendingEvent, String message) {
+        if (queue.remove(pendingEvent)) {
+            pendingCount.decrementAndGet();
+            log.warn("Событие {} не записано в ленту: {}", pendingEvent.event, message);
+            throw new IllegalStateException(message);
+        }
+    }
+
+    private static RuntimeException toRuntimeException(Throwable exception) {
+        if (exception instanceof RuntimeException) {
+            return (RuntimeException) exception;
+        }
+        return new IllegalStateException("Event is not written to the feed", exception);
+    }
+
+    // Событие в очереди. written - кого уведомить о записи, null в режиме ASYNC
+    private static class PendingEvent {
+        private final Event event;
+        private final CompletableFuture<Void> written;
+
+        private PendingEvent(Event event, CompletableFuture<Void> written) {
+            this.event = event;
+            this.written = written;
+        }
+
+        private void complete(Throwable exception) {
+            if (written == null) {
+                return;
+            }
+            if (exception == null) {
+                written.complete(null);
+            } else {
+                written.completeExceptionally(exception);
+            }
+        }
     }
 }
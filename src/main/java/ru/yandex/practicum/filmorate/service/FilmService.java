@@ -1,32 +1,42 @@
 package ru.yandex.practicum.filmorate.service;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
 import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.model.Like;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.utility.EventOperation;
 import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.Pagination;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 public class FilmService {
 
     private final FilmStorage filmDbStorage;
     private final DirectorStorage directorStorage;
     private final EventService eventService;
+    private final ReviewStorage reviewStorage;
 
 
     @Autowired
-    public FilmService(FilmStorage filmDbStorage, EventService eventService, DirectorStorage directorStorage) {
+    public FilmService(FilmStorage filmDbStorage, EventService eventService, DirectorStorage directorStorage, ReviewStorage reviewStorage) {
         this.filmDbStorage = filmDbStorage;
         this.eventService = eventService;
         this.directorStorage = directorStorage;
+        this.reviewStorage = reviewStorage;
     }
 
     public Optional<Film> postFilm(Film film) {
@@ -48,26 +58,34 @@ public class FilmService {
         return filmDbStorage.putFilm(film);
     }
 
-    public Collection<Film> getFilms() {
-        return filmDbStorage.getFilms();
+    public void streamFilms(View view, Consumer<Film> consumer) {
+        filmDbStorage.streamFilms(view, consumer);
+    }
+
+    public CursorPage<Film> getFilmsPage(String cursor, int limit) {
+        return getFilmsPage(cursor, limit, View.FULL);
+    }
+
+    public CursorPage<Film> getFilmsPage(String cursor, int limit, View view) {
+        Pagination.checkLimit(limit);
+        int lastFilmId = cursor == null ? 0 : Pagination.decodeCursor(cursor, 1)[0];
+        // Запрашиваю на 1 фильм больше, чтобы узнать, есть ли следующая страница
+        List<Film> films = filmDbStorage.getFilmsAfter(lastFilmId, limit + 1, view);
+        return Pagination.page(films, limit, film -> new long[]{film.getId()});
     }
 
     public Optional<Film> getFilmById(int filmId) {
         return filmDbStorage.getFilmById(filmId);
     }
 
+    public boolean existsFilm(int filmId) {
+        return filmDbStorage.existsFilm(filmId);
+    }
+
     public Optional<Film> putLikeToFilm(int filmId, int userId) {
         eventService.createEvent(userId, EventType.LIKE, EventOperation.ADD, filmId);
-
-        return getFilmById(filmId)
-                .map(film -> {
-                    for (Like like : film.getLikes()) {
-                        if (like.getUserId() == userId) {
-                            return film;
-                        }
-                    }
-                    return filmDbStorage.putLikeToFilm(filmId, userId).get();
-                });
+        // Повторный лайк хранилище пропускает само, так что заранее загружать фильм не нужно
+        return filmDbStorage.putLikeToFilm(filmId, userId);
     }
 
     public Optional<Film> deleteLikeToFilm(int filmId, int userId) {
@@ -87,18 +105,7 @@ public class FilmService {
             count = 10;
         }
         if (!allParams.containsKey("year") && !allParams.containsKey("genreId")) {
-            Comparator<Film> comparator = Comparator.comparing(film -> film.getLikes().size());
-            topFilms = getFilms().stream()
-                    .sorted(comparator.reversed())
-                    .limit(count)
-                    .collect(Collectors.toList());
-            for (Film film : topFilms) {          // !
-                if (film.getGenres() != null) {
-                    List<Genre> uniqGenres = film.getGenres().stream().distinct().collect(Collectors.toList());
-                    film.getGenres().clear();
-                    film.getGenres().addAll(uniqGenres);
-                }
-            }
+            topFilms = filmDbStorage.getPopular(count);
         } else if (allParams.containsKey("genreId") && allParams.containsKey("year")) {
             int genreId = Integer.parseInt(allParams.get("genreId"));
             int year = Integer.parseInt(allParams.get("year"));
@@ -114,49 +121,47 @@ public class FilmService {
     }
 
     public Collection<Film> getCommonFilms(int userId, int friendId) {
-
-        Comparator<Film> comparator = Comparator.comparing(film -> film.getLikes().size());
-
-        return filmDbStorage.getFilms().stream()
-                .filter(film -> containsId(film.getLikes(), userId) && containsId(film.getLikes(), friendId))
-                .sorted(comparator.reversed())
-                .collect(Collectors.toList());
-    }
-
-    private boolean containsId(final Set<Like> set, final int userId) {
-        return set.stream().anyMatch(o -> o.getUserId() == userId);
+        return filmDbStorage.getCommonFilms(userId, friendId);
     }
 
-    public Film getFilm(int directorId) {
-        return filmDbStorage.getFilmById(directorId).orElse(null);
+    public List<Film> getFilmsByDirectorId(int id, String sort) {
+        return getFilmsByDirectorId(id, sort, null, 0);
     }
 
-    public List<Film> getFilmsByDirectorId(int id, String sort) {
+    // count == null - все фильмы режиссёра начиная с offset
+    public List<Film> getFilmsByDirectorId(int id, String sort, Integer count, int offset) {
         if (!(sort.equals("likes") || sort.equals("year"))) {
             throw new IllegalArgumentException("неизвестная сортировка " + sort + ". Варианты: [likes, year]");
         }
+        if (count != null) {
+            Pagination.checkLimit(count);
+        }
+        if (offset < 0) {
+            throw new IncorrectParameterException("Offset should not be negative");
+        }
 
         if (directorStorage.isDirectorPresent(id)) {
-            List<Film> films = filmDbStorage.getFilmsIdByDirectorId(id).stream()
-                    .map(this::getFilm)
-                    .collect(Collectors.toList());
-
-            if (sort.equals("likes")) {
-                Comparator<Film> comparator = Comparator.comparing(film -> film.getLikes().size());
-                return films.stream()
-                        .sorted(comparator.reversed())
-                        .collect(Collectors.toList());
-            } else {
-                return films.stream()
-                        .sorted(Comparator.comparing(Film::getReleaseDate))
-                        .collect(Collectors.toList());
-            }
+            return filmDbStorage.getFilmsByDirectorId(id, sort.equals("year"),
+                    count == null ? Integer.MAX_VALUE : count, offset);
         }
         return Collections.emptyList();
     }
 
     public Optional<Integer> deleteFilm(int filmId) {
-        return filmDbStorage.deleteFilm(filmId);
+        Optional<Integer> deletedId = filmDbStorage.deleteFilm(filmId);
+        // Отзывы удалённого фильма не должны остаться в кэше
+        reviewStorage.invalidateFilms(List.of(filmId));
+        return deletedId;
+    }
+
+    // Сверяет FILMS.LIKE_COUNT с таблицей LIKES и исправляет разошедшиеся счётчики
+    @Scheduled(initialDelayString = "${filmorate.likes.reconcile-interval-ms:3600000}",
+            fixedDelayString = "${filmorate.likes.reconcile-interval-ms:3600000}")
+    public void reconcileLikeCounts() {
+        int driftedFilms = filmDbStorage.reconcileLikeCounts();
+        if (driftedFilms > 0) {
+            log.warn("Счётчик лайков разошёлся с таблицей LIKES у {} фильмов и был пересчитан", driftedFilms);
+        }
     }
 
     public List<Film> searchByTitleByDirector(String query, List<String> by) {
@@ -175,4 +180,19 @@ public class FilmService {
                 .sorted(comparator.reversed())
                 .collect(Collectors.toList());
     }
+
+    // Подсказки для строки поиска: названия фильмов и имена режиссёров, в зависимости от by
+    public List<String> getSearchSuggestions(String query, List<String> by, int count) {
+        Pagination.checkLimit(count);
+        Set<String> suggestions = new LinkedHashSet<>();
+        if (by.contains("title")) {
+            suggestions.addAll(filmDbStorage.getTitleSuggestions(query, count));
+        }
+        if (by.contains("director")) {
+            suggestions.addAll(filmDbStorage.getDirectorSuggestions(query, count));
+        }
+        return suggestions.stream()
+                .limit(count)
+                .collect(Collectors.toList());
+    }
 }
@@ -5,15 +5,15 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.film.FilmNotFoundException;
 import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Review;
 import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.utility.EventOperation;
 import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.Pagination;
 
-import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -58,15 +58,25 @@ public class ReviewService {
     }
 
     public List<Review> getReviewsByFilmId(Integer filmId, int count) {
-        if (filmId == null) {
-            return reviewStorage.getAllReviews(count).stream()
-                    .sorted(Comparator.comparing(Review::getUseful).reversed())
-                    .collect(Collectors.toList());
-        } else {
-            return reviewStorage.getReviewsByFilmId(filmId, count).stream()
-                    .sorted(Comparator.comparing(Review::getUseful).reversed())
-                    .collect(Collectors.toList());
+        return getReviewsPageByCount(filmId, null, count).getItems();
+    }
+
+    // Старый параметр count не проверяется, как и раньше: слишком большой count уменьшается до максимума,
+    // а при count не больше 0 отзывов нет
+    public CursorPage<Review> getReviewsPageByCount(Integer filmId, String cursor, int count) {
+        if (count <= 0) {
+            return new CursorPage<>(List.of(), null);
         }
+        return getReviewsPage(filmId, cursor, Math.min(count, Pagination.MAX_LIMIT));
+    }
+
+    public CursorPage<Review> getReviewsPage(Integer filmId, String cursor, int limit) {
+        Pagination.checkLimit(limit);
+        // Курсор - это полезность и айди последнего отзыва страницы. Первая страница начинается с самых полезных
+        int[] lastReview = cursor == null ? new int[]{Integer.MAX_VALUE, 0} : Pagination.decodeCursor(cursor, 2);
+        // Запрашиваю на 1 отзыв больше, чтобы узнать, есть ли следующая страница
+        List<Review> reviews = reviewStorage.getReviewsAfter(filmId, lastReview[0], lastReview[1], limit + 1);
+        return Pagination.page(reviews, limit, review -> new long[]{review.getUseful(), review.getReviewId()});
     }
 
     public void putLikeToReview(int reviewId, int userId) {
@@ -86,13 +96,13 @@ public class ReviewService {
     }
 
     private void checkUserId(int userId) {
-        if (userService.getUserById(userId).isEmpty()) {
+        if (!userService.existsUser(userId)) {
             throw new UserNotFoundException("User is not found");
         }
     }
 
-    private void checkFilmId(int userId) {
-        if (filmService.getFilmById(userId).isEmpty()) {
+    private void checkFilmId(int filmId) {
+        if (!filmService.existsFilm(filmId)) {
             throw new FilmNotFoundException("Film is not found");
         }
     }
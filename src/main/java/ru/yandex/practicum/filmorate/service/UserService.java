@@ -2,13 +2,20 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.filmorate.model.CursorPage;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.cache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 import ru.yandex.practicum.filmorate.utility.EventOperation;
 import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.Pagination;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 @Service
 public class UserService {
@@ -17,10 +24,18 @@ public class UserService {
 
     private final EventService eventService;
 
+    private final FilmStorage filmStorage;
+    private final FilmCache filmCache;
+    private final ReviewStorage reviewStorage;
+
     @Autowired
-    public UserService(UserStorage userDbStorage, EventService eventService) {   // !!!
+    public UserService(UserStorage userDbStorage, EventService eventService, FilmStorage filmStorage,
+                       FilmCache filmCache, ReviewStorage reviewStorage) {   // !!!
         this.userDbStorage = userDbStorage;
         this.eventService = eventService;
+        this.filmStorage = filmStorage;
+        this.filmCache = filmCache;
+        this.reviewStorage = reviewStorage;
     }
 
     public Optional<User> postUser(User user) {
@@ -38,17 +53,45 @@ public class UserService {
             user.setName(user.getLogin());
         }
 
-        return userDbStorage.putUser(user);
+        // putUser заменяет лайки пользователя и пересчитывает лайки его старых и новых фильмов,
+        // поэтому эти фильмы убираются из кэша, если лайки поменялись
+        Set<Integer> oldFilmIds = new HashSet<>(userDbStorage.getLikedFilmIds(user.getId()));
+        Optional<User> updatedUser = userDbStorage.putUser(user);
+        if (updatedUser.isPresent()) {
+            Set<Integer> newFilmIds = new HashSet<>();
+            user.getLikes().forEach(like -> newFilmIds.add(like.getFilmId()));
+            if (!newFilmIds.equals(oldFilmIds)) {
+                newFilmIds.addAll(oldFilmIds);
+                filmCache.invalidateFilms(newFilmIds);
+            }
+        }
+        return updatedUser;
+    }
+
+    public void streamUsers(View view, Consumer<User> consumer) {
+        userDbStorage.streamUsers(view, consumer);
+    }
+
+    public CursorPage<User> getUsersPage(String cursor, int limit) {
+        return getUsersPage(cursor, limit, View.FULL);
     }
 
-    public Collection<User> getUsers() {
-        return userDbStorage.getUsers();
+    public CursorPage<User> getUsersPage(String cursor, int limit, View view) {
+        Pagination.checkLimit(limit);
+        int lastUserId = cursor == null ? 0 : Pagination.decodeCursor(cursor, 1)[0];
+        // Запрашиваю на 1 пользователя больше, чтобы узнать, есть ли следующая страница
+        List<User> users = userDbStorage.getUsersAfter(lastUserId, limit + 1, view);
+        return Pagination.page(users, limit, user -> new long[]{user.getId()});
     }
 
     public Optional<User> getUserById(int id) {
         return userDbStorage.getUserById(id);
     }
 
+    public boolean existsUser(int id) {
+        return userDbStorage.existsUser(id);
+    }
+
     public Optional<User> putUserFriend(int id, int friendId) {
         eventService.createEvent(id, EventType.FRIEND, EventOperation.ADD, friendId);
         return userDbStorage.putUserFriend(id, friendId);
@@ -60,7 +103,11 @@ public class UserService {
     }
 
     public Collection<User> getFriends(int id) {
-        return userDbStorage.getFriends(id);
+        return getFriends(id, View.FULL);
+    }
+
+    public Collection<User> getFriends(int id, View view) {
+        return userDbStorage.getFriends(id, view);
     }
 
     public Collection<User> getCommonFriends(int userId, int otherId) {
@@ -68,62 +115,19 @@ public class UserService {
     }
 
     public Collection<Film> getRecommendationFilms(int userId) {
-
-        // мапа айди пользователя, мапа лайкнутых фильмов, где ключ - айди фильма, а значение - фильм
-        HashMap<Integer, HashMap<Integer, Film>> usersAndFilms = userDbStorage.getRecommendationFilms(userId);
-
-        // Айди пользователей, фильмы которых я буду рекомендовать
-        Collection<Integer> idsUsersForRecommendation = new ArrayList<>();
-
-        // Фильмы, которые я буду рекомендовать
-        Collection<Film> filmsForRecommendation = new HashSet<>();
-
-        // Лайкнутые фильмы пользователя, который сделал запрос.
-        HashMap<Integer, Film> userFilms = usersAndFilms.get(userId);
-
-        // Когда мы проходимся по пользователям, мы проверяем, на сколько они совпали с юзером
-        int howManyMatched = 0;
-
-        // Прохожусь по всем ключам пользователей
-        for (Integer otherIds : usersAndFilms.keySet()) {
-            // Фильмы проверяемого пользователя, которого мы проверяем
-            HashMap<Integer, Film> films = new HashMap<>(usersAndFilms.get(otherIds));
-
-            // Если подборка фильмов юзера равна подборке фильмов проверяемого пользователя
-            if (films.keySet().equals(userFilms.keySet())) {
-                continue;
-            }
-
-            // Оставляю только фильмы, которые есть у юзера
-            films.values().retainAll(userFilms.values());
-
-            // Если количество совпавших в прошлый раз равно количеству совпавших сейчас, то я просто добавляю
-            if (films.size() == howManyMatched) {
-                idsUsersForRecommendation.add(otherIds);
-                continue;
-            }
-
-            // Если количество совпавших в прошлый раз больше количества совпавших сейчас,
-            // то я меняю количество совпавших в прошлый раз, удаляю всех, кого я рекомендовал и заполняю заного
-            if (films.size() > howManyMatched) {
-                howManyMatched = films.size();
-                idsUsersForRecommendation.clear();
-                idsUsersForRecommendation.add(otherIds);
-            }
-        }
-
-        // Я нашёл все нужные ID пользователей и добавляю их фильмы
-        for (Integer id : idsUsersForRecommendation) {
-            filmsForRecommendation.addAll(usersAndFilms.get(id).values());
-        }
-        // Удаляю все фильмы, которые лайкал пользователь, из результата
-        if (userFilms != null) {
-            filmsForRecommendation.removeAll(userFilms.values());
-        }
-        return filmsForRecommendation;
+        // Фильмы, которые лайкнули пользователи с наибольшим количеством общих лайков, а userId ещё не лайкал
+        List<Integer> filmIds = userDbStorage.getRecommendedFilmIds(userId);
+        return new LinkedHashSet<>(filmStorage.getFilmsByIds(filmIds));
     }
 
     public Optional<Integer> deleteUser(int userId) {
-        return userDbStorage.deleteUser(userId);
+        // Вместе с отзывами и оценками пользователя поменяются отзывы только этих фильмов
+        List<Integer> reviewedFilmIds = reviewStorage.getUserReviewFilmIds(userId);
+        Optional<Integer> deletedId = userDbStorage.deleteUser(userId);
+        reviewStorage.invalidateFilms(reviewedFilmIds);
+        // Лайки пользователя удалились каскадно, а они могут быть у любого закэшированного фильма.
+        // Удаление пользователя - редкая операция, поэтому кэш фильмов сбрасывается целиком
+        filmCache.invalidateCache();
+        return deletedId;
     }
 }
@@ -49,4 +49,12 @@ public interface DirectorStorage {
      * @param id - уникальный идентификатор режисера
      */
     boolean isDirectorPresent(Integer id);
+
+    /**
+     * Метод получения айди фильмов режисера
+     *
+     * @param id - уникальный идентификатор режисера
+     * @return айди фильмов режисера
+     */
+    List<Integer> getDirectorFilmIds(int id);
 }
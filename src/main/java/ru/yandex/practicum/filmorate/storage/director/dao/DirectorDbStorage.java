@@ -12,6 +12,7 @@ import org.springframework.stereotype.Repository;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Director;
 import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.dao.FilmSearchIndex;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -28,6 +29,11 @@ public class DirectorDbStorage implements DirectorStorage {
      */
     private final JdbcTemplate jdbcTemplate;
 
+    /**
+     * Поисковый индекс фильмов, в котором хранятся имена режиссеров
+     */
+    private final FilmSearchIndex filmSearchIndex;
+
     @Override
     public List<Director> getDirectors() {
         log.debug("Получение спика режисеров из базы.");
@@ -73,6 +79,7 @@ public class DirectorDbStorage implements DirectorStorage {
 
         }
         director.setId(keyHolder.getKey().intValue());
+        filmSearchIndex.refreshDirector(director.getId());
         return director;
     }
 
@@ -84,6 +91,7 @@ public class DirectorDbStorage implements DirectorStorage {
         if (jdbcTemplate.update(sqlQuery, director.getName(), director.getId()) != 1) {
             throw new NotFoundException(String.format("Режиссера с id=%d не существует", director.getId()));
         }
+        filmSearchIndex.refreshDirector(director.getId());
         return director;
     }
 
@@ -95,6 +103,7 @@ public class DirectorDbStorage implements DirectorStorage {
         if (jdbcTemplate.update(sqlQuery, id) != 1) {
             throw new NotFoundException(String.format("Режиссера с id=%d не существует", id));
         }
+        filmSearchIndex.removeDirector(id);
     }
 
     @Override
@@ -109,4 +118,11 @@ public class DirectorDbStorage implements DirectorStorage {
         }
     }
 
+    @Override
+    public List<Integer> getDirectorFilmIds(int id) {
+        log.debug("Получение фильмов режисера.");
+        // Индекс FILM_DIRECTORS (DIRECTOR_ID, FILM_ID) отдаёт фильмы режиссёра без чтения всей таблицы
+        String sqlQuery = "select film_id from film_directors where director_id = ?";
+        return jdbcTemplate.queryForList(sqlQuery, Integer.class, id);
+    }
 }
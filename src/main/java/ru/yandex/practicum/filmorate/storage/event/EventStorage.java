@@ -7,5 +7,15 @@ import java.util.List;
 public interface EventStorage {
     List<Event> getFeed(int userId);
 
+    // События старше события с timestamp before и айди beforeEventId, от новых к старым
+    List<Event> getFeed(int userId, long before, int beforeEventId, int limit);
+
+    int deleteEventsBefore(long before, int limit);
+
+    // Проверяет событие так же, как его проверит запись. Нужна, чтобы ошибка дошла до запроса до постановки в очередь
+    void checkEvent(Event event);
+
     void createEvent(Event event);
+
+    void createEvents(List<Event> events);
 }
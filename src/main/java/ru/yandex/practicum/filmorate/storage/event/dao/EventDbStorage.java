@@ -2,7 +2,9 @@ package ru.yandex.practicum.filmorate.storage.event.dao;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
 import ru.yandex.practicum.filmorate.model.Event;
 import ru.yandex.practicum.filmorate.storage.event.EventStorage;
@@ -12,50 +14,103 @@ import ru.yandex.practicum.filmorate.utility.EventType;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 
 @Slf4j
 @Component
 public class EventDbStorage implements EventStorage {
+    private static final String INSERT_EVENT = "INSERT INTO FEED " +
+            "(USER_ID, timestamp, EVENT_TYPE, OPERATION, ENTITY_ID) values (?, ?, ?, ?, ?)";
+
     private final JdbcTemplate jdbcTemplate;
 
     private final UserStorage userStorage;
+    private final TransactionTemplate transactionTemplate;
 
     public EventDbStorage(JdbcTemplate jdbcTemplate, UserStorage userStorage) {
         this.jdbcTemplate = jdbcTemplate;
         this.userStorage = userStorage;
+        transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(Objects.requireNonNull(jdbcTemplate.getDataSource())));
     }
 
     @Override
     public List<Event> getFeed(int userId) {
-        if (userStorage.getUserById(userId).isEmpty()) {
-            throw new UserNotFoundException("Пользователь по " + userId + " id не найден.");
-        }
+        checkUser(userId);
 
         final String sqlQuery = "SELECT EVENT_ID, USER_ID, timestamp, EVENT_TYPE, OPERATION, ENTITY_ID " +
                 "FROM FEED " +
-                "WHERE USER_ID = ? ";
+                "WHERE USER_ID = ? " +
+                "ORDER BY EVENT_ID";
         return jdbcTemplate.query(sqlQuery, this::mapRow, userId);
     }
 
+    @Override
+    public List<Event> getFeed(int userId, long before, int beforeEventId, int limit) {
+        checkUser(userId);
+
+        // Последние limit событий до события (before, beforeEventId) в порядке timestamp и айди.
+        // Ключ из двух полей не теряет события с одинаковым timestamp на границе страниц.
+        // Индекс FEED (USER_ID, timestamp, EVENT_ID) отдаёт события уже в нужном порядке начиная с timestamp <= before,
+        // поэтому читается только сама страница, сколько бы событий ни было у пользователя
+        final String sqlQuery = "SELECT EVENT_ID, USER_ID, timestamp, EVENT_TYPE, OPERATION, ENTITY_ID " +
+                "FROM FEED " +
+                "WHERE USER_ID = ? AND timestamp <= ? AND (timestamp < ? OR EVENT_ID < ?) " +
+                "ORDER BY timestamp DESC, EVENT_ID DESC " +
+                "LIMIT ?";
+        return jdbcTemplate.query(sqlQuery, this::mapRow, userId, before, before, beforeEventId, limit);
+    }
+
+    @Override
+    public int deleteEventsBefore(long before, int limit) {
+        // Не больше limit строк за раз, чтобы не держать долгую блокировку на FEED
+        final String sqlQuery = "DELETE FROM FEED " +
+                "WHERE timestamp < ? " +
+                "FETCH FIRST ? ROWS ONLY";
+        return jdbcTemplate.update(sqlQuery, before, limit);
+    }
+
+    private void checkUser(int userId) {
+        if (!userStorage.existsUser(userId)) {
+            throw new UserNotFoundException("Пользователь по " + userId + " id не найден.");
+        }
+    }
+
     @Override
     public void createEvent(Event event) {
+        checkEvent(event);
+        jdbcTemplate.update(INSERT_EVENT, eventToArgs(event));
+    }
+
+    @Override
+    public void createEvents(List<Event> events) {
+        events.forEach(this::checkEvent);
+
+        // Все события пишутся одним пакетом в одной транзакции. Без транзакции бд успевает записать
+        // верные строки пакета до ошибки, и при записи событий по одному они бы задвоились
+        List<Object[]> batch = new ArrayList<>();
+        events.forEach(event -> batch.add(eventToArgs(event)));
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_EVENT, batch));
+    }
+
+    @Override
+    public void checkEvent(Event event) {
         if (event.getEntityId() <= 0) {
             throw new UserNotFoundException("entityId не может быть отрицательным.");
         }
+    }
 
-        final String sqlQuery = "INSERT INTO FEED " +
-                "(USER_ID, timestamp, EVENT_TYPE, OPERATION, ENTITY_ID) values (?, ?, ?, ?, ?)";
-
-        jdbcTemplate.update(
-                sqlQuery,
+    private Object[] eventToArgs(Event event) {
+        return new Object[]{
                 event.getUserId(),
                 event.getTimestamp(),
                 event.getEventType().name(),
                 event.getOperation().name(),
                 event.getEntityId()
-        );
+        };
     }
 
     private Event mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -1,25 +1,38 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Optional<Film> postFilm(Film film);
 
     Optional<Film> putFilm(Film film);
 
-    Collection<Film> getFilms();
+    void streamFilms(View view, Consumer<Film> consumer);
+
+    List<Film> getFilmsAfter(int filmId, int limit, View view);
+
+    List<Film> getFilmsByIds(Collection<Integer> filmIds);
 
     Optional<Film> getFilmById(int id);
 
+    // Проверка, что фильм есть, без загрузки его лайков, жанров и режиссёров
+    boolean existsFilm(int id);
+
     Optional<Film> putLikeToFilm(int filmId, int userId);
 
     Optional<Film> deleteLikeFromFilm(int filmId, int userId);
 
-    List<Integer> getFilmsIdByDirectorId(int id);
+    // Фильмы, которые лайкнули оба пользователя, по убыванию лайков
+    List<Film> getCommonFilms(int userId, int friendId);
+
+    // Фильмы режиссёра по убыванию лайков или, если sortByYear, по дате выхода
+    List<Film> getFilmsByDirectorId(int directorId, boolean sortByYear, int limit, int offset);
 
     List<Film> searchByTitle(String query);
 
@@ -27,6 +40,12 @@ public interface FilmStorage {
 
     List<Film> searchByTitleByDirector(String query);
 
+    List<String> getTitleSuggestions(String query, int count);
+
+    List<String> getDirectorSuggestions(String query, int count);
+
+    List<Film> getPopular(int count);
+
     List<Film> getPopularByGenreByYear(int count, int genreId, int year);
 
     List<Film> getPopularByYear(int count, int year);
@@ -34,4 +53,6 @@ public interface FilmStorage {
     List<Film> getPopularByGenre(int count, int genreId);
 
     Optional<Integer> deleteFilm(int filmId);
+
+    int reconcileLikeCounts();
 }
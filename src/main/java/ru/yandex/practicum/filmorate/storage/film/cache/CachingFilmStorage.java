@@ -0,0 +1,203 @@
+package ru.yandex.practicum.filmorate.storage.film.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.dao.FilmDbStorage;
+import ru.yandex.practicum.filmorate.utility.View;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+// Кэш фильмов по айди поверх FilmDbStorage. Фильм по айди запрашивают контроллер, лайки, отзывы,
+// и каждый раз это несколько запросов в бд, поэтому getFilmById сначала смотрит в кэш.
+// Кэш ограничен по размеру и по времени жизни записи. Фильм убирается из кэша после изменения
+// самого фильма, его лайков или режиссёров. Изменения, которые идут мимо FilmStorage, сбрасывают кэш
+// через FilmCache. Остальные методы просто вызывают FilmDbStorage.
+// Статистика кэша доступна в метриках cache.* с тегом cache=films, например /actuator/metrics/cache.gets
+@Primary
+@Component
+public class CachingFilmStorage implements FilmStorage, FilmCache {
+
+    private final FilmDbStorage filmDbStorage;
+    private final Cache<Integer, Film> films;
+
+    @Autowired
+    public CachingFilmStorage(FilmDbStorage filmDbStorage,
+                              MeterRegistry meterRegistry,
+                              @Value("${filmorate.films.cache.maximum-size:10000}") long maximumSize,
+                              @Value("${filmorate.films.cache.expire-after-write-ms:600000}") long expireAfterWriteMs) {
+        this.filmDbStorage = filmDbStorage;
+        this.films = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(Duration.ofMillis(expireAfterWriteMs))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, films, "films");
+    }
+
+    // Отсутствующие фильмы не кэшируются, чтобы только что созданный фильм сразу находился.
+    // Изменения убирают фильм из кэша после записи в бд, а Caffeine ждёт окончания загрузки того же ключа,
+    // так что загрузка, начатая до изменения, не оставит в кэше старый фильм
+    @Override
+    public Optional<Film> getFilmById(int id) {
+        Film film = films.get(id, key -> filmDbStorage.getFilmById(key).orElse(null));
+        return Optional.ofNullable(film).map(this::copyFilm);
+    }
+
+    // Фильм из кэша точно есть в бд, остальные проверяются запросом.
+    // asMap не считается обращением к кэшу, поэтому проверка не портит статистику попаданий
+    @Override
+    public boolean existsFilm(int id) {
+        return films.asMap().containsKey(id) || filmDbStorage.existsFilm(id);
+    }
+
+    @Override
+    public Optional<Film> putFilm(Film film) {
+        Optional<Film> updatedFilm = filmDbStorage.putFilm(film);
+        films.invalidate(film.getId());
+        return updatedFilm;
+    }
+
+    @Override
+    public Optional<Film> putLikeToFilm(int filmId, int userId) {
+        Optional<Film> film = filmDbStorage.putLikeToFilm(filmId, userId);
+        films.invalidate(filmId);
+        return film;
+    }
+
+    @Override
+    public Optional<Film> deleteLikeFromFilm(int filmId, int userId) {
+        Optional<Film> film = filmDbStorage.deleteLikeFromFilm(filmId, userId);
+        films.invalidate(filmId);
+        return film;
+    }
+
+    @Override
+    public Optional<Integer> deleteFilm(int filmId) {
+        Optional<Integer> deletedId = filmDbStorage.deleteFilm(filmId);
+        films.invalidate(filmId);
+        return deletedId;
+    }
+
+    @Override
+    public void invalidateFilms(Collection<Integer> filmIds) {
+        films.invalidateAll(filmIds);
+    }
+
+    @Override
+    public void invalidateCache() {
+        films.invalidateAll();
+    }
+
+    @Override
+    public Optional<Film> postFilm(Film film) {
+        return filmDbStorage.postFilm(film);
+    }
+
+    @Override
+    public void streamFilms(View view, Consumer<Film> consumer) {
+        filmDbStorage.streamFilms(view, consumer);
+    }
+
+    @Override
+    public List<Film> getFilmsAfter(int filmId, int limit, View view) {
+        return filmDbStorage.getFilmsAfter(filmId, limit, view);
+    }
+
+    @Override
+    public List<Film> getFilmsByIds(Collection<Integer> filmIds) {
+        return filmDbStorage.getFilmsByIds(filmIds);
+    }
+
+    @Override
+    public List<Film> getCommonFilms(int userId, int friendId) {
+        return filmDbStorage.getCommonFilms(userId, friendId);
+    }
+
+    @Override
+    public List<Film> getFilmsByDirectorId(int directorId, boolean sortByYear, int limit, int offset) {
+        return filmDbStorage.getFilmsByDirectorId(directorId, sortByYear, limit, offset);
+    }
+
+    @Override
+    public List<Film> searchByTitle(String query) {
+        return filmDbStorage.searchByTitle(query);
+    }
+
+    @Override
+    public List<Film> searchByDirector(String query) {
+        return filmDbStorage.searchByDirector(query);
+    }
+
+    @Override
+    public List<Film> searchByTitleByDirector(String query) {
+        return filmDbStorage.searchByTitleByDirector(query);
+    }
+
+    @Override
+    public List<String> getTitleSuggestions(String query, int count) {
+        return filmDbStorage.getTitleSuggestions(query, count);
+    }
+
+    @Override
+    public List<String> getDirectorSuggestions(String query, int count) {
+        return filmDbStorage.getDirectorSuggestions(query, count);
+    }
+
+    @Override
+    public List<Film> getPopular(int count) {
+        return filmDbStorage.getPopular(count);
+    }
+
+    @Override
+    public List<Film> getPopularByGenreByYear(int count, int genreId, int year) {
+        return filmDbStorage.getPopularByGenreByYear(count, genreId, year);
+    }
+
+    @Override
+    public List<Film> getPopularByYear(int count, int year) {
+        return filmDbStorage.getPopularByYear(count, year);
+    }
+
+    @Override
+    public List<Film> getPopularByGenre(int count, int genreId) {
+        return filmDbStorage.getPopularByGenre(count, genreId);
+    }
+
+    @Override
+    public int reconcileLikeCounts() {
+        return filmDbStorage.reconcileLikeCounts();
+    }
+
+    // Отдаю копии, чтобы никто не поменял объекты в кэше. Лайки не копируются: копия делит массивы
+    // с фильмом в кэше до первого изменения, иначе каждое попадание в кэш стоило бы O(лайков)
+    private Film copyFilm(Film film) {
+        Film copy = Film.builder()
+                .id(film.getId())
+                .name(film.getName())
+                .description(film.getDescription())
+                .releaseDate(film.getReleaseDate())
+                .duration(film.getDuration())
+                .mpa(film.getMpa() == null ? null : new Mpa(film.getMpa().getId(), film.getMpa().getName()))
+                .build();
+        for (Director director : film.getDirectors()) {
+            copy.getDirectors().add(new Director(director.getId(), director.getName()));
+        }
+        for (Genre genre : film.getGenres()) {
+            copy.getGenres().add(new Genre(genre.getId(), genre.getName()));
+        }
+        copy.getLikes().shareFrom(film.getLikes());
+        return copy;
+    }
+}
@@ -0,0 +1,14 @@
+package ru.yandex.practicum.filmorate.storage.film.cache;
+
+import java.util.Collection;
+
+// Управление кэшем фильмов для изменений, которые проходят мимо FilmStorage:
+// правки режиссёров, лайки из обновлённого пользователя и удаление пользователя
+public interface FilmCache {
+
+    // Сбрасывает закэшированные фильмы с этими айди, например фильмы режиссёра после изменения его имени
+    void invalidateFilms(Collection<Integer> filmIds);
+
+    // Сбрасывает все закэшированные фильмы
+    void invalidateCache();
+}
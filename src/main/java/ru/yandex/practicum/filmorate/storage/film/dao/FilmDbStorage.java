@@ -3,39 +3,57 @@ package ru.yandex.practicum.filmorate.storage.film.dao;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
 import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.utility.View;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 public class FilmDbStorage implements FilmStorage {
 
+    // Начало запроса на получение фильмов. Условие и сортировка дописываются в конец.
+    // Названия рейтингов MPA берутся из кэша MpaStorage, поэтому таблица MPA не присоединяется
+    private static final String SELECT_FILMS = "SELECT F.FILM_ID, F.NAME, F.RELEASE_DATE, F.DURATION, F.DESCRIPTION, F.MPA_ID " +
+            "FROM FILMS AS F ";
+
+    // Максимальное количество айди фильмов в одном условии IN и в одной пачке при потоковой выдаче
+    private static final int FILMS_BATCH_SIZE = 500;
+
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert simpleJdbcInsertForFilms;
-    private final SimpleJdbcInsert simpleJdbcInsertForLikes;
+    private final TransactionTemplate transactionTemplate;
+    private final GenreStorage genreStorage;
     private final MpaStorage mpaStorage;
+    private final FilmSearchIndex filmSearchIndex;
 
     @Autowired
-    public FilmDbStorage(JdbcTemplate jdbcTemplate, MpaStorage mpaStorage) {
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, GenreStorage genreStorage, MpaStorage mpaStorage,
+                         FilmSearchIndex filmSearchIndex) {
         this.jdbcTemplate = jdbcTemplate;
+        this.filmSearchIndex = filmSearchIndex;
+        this.genreStorage = genreStorage;
+        this.mpaStorage = mpaStorage;
         this.simpleJdbcInsertForFilms = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("FILMS")
                 .usingGeneratedKeyColumns("FILM_ID");
-        this.simpleJdbcInsertForLikes = new SimpleJdbcInsert(jdbcTemplate)
-                .withTableName("LIKES")
-                .usingGeneratedKeyColumns("LIKE_ID");
-        this.mpaStorage = mpaStorage;
+        // Менеджер транзакций создаётся поверх того же DataSource, что и jdbcTemplate,
+        // чтобы изменение лайков и счётчика LIKE_COUNT выполнялось атомарно
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(Objects.requireNonNull(jdbcTemplate.getDataSource())));
     }
 
     @Override
@@ -59,6 +77,8 @@ public class FilmDbStorage implements FilmStorage {
         values.put("RELEASE_DATE", java.sql.Date.valueOf(film.getReleaseDate()));
         values.put("DURATION", film.getDuration());
         values.put("MPA_ID", film.getMpa().getId());
+        // При post лайков всегда нет
+        values.put("LIKE_COUNT", 0);
 
         // Айдишник фильма, который сгенерировался в бд
         int filmId = simpleJdbcInsertForFilms.executeAndReturnKey(values).intValue();
@@ -87,12 +107,23 @@ public class FilmDbStorage implements FilmStorage {
         // Не вставляю людей, которые поставили лайки, так как при post их список всегда пустой
         log.debug("Объект film с id {} занесён в таблицу FILMS", filmId);
 
+        filmSearchIndex.refreshFilm(filmId);
+
         return Optional.of(film);
 
     }
 
     @Override
     public Optional<Film> putFilm(Film film) {
+        // Фильм, его лайки и счётчик лайков меняются в одной транзакции
+        Optional<Film> updatedFilm = transactionTemplate.execute(status -> updateFilm(film));
+
+        // Поисковый индекс обновляется только после коммита
+        updatedFilm.ifPresent(value -> filmSearchIndex.refreshFilm(value.getId()));
+        return updatedFilm;
+    }
+
+    private Optional<Film> updateFilm(Film film) {
 
         // Нахожу айди фильма. При изменении, он не меняется
         int filmId = film.getId();
@@ -143,11 +174,15 @@ public class FilmDbStorage implements FilmStorage {
             // Если есть разница, то я удаляю всех людей из бд, которые лайкнули данный фильм
             jdbcTemplate.update(sqlQueryDropForLikes, filmId);
 
-            // А потом добавляю новых людей, которые лайкнули фильм
-            for (Like like : film.getLikes()) {
-                likes.add(new Object[]{filmId, like.getUserId()});
-            }
+            // А потом добавляю новых людей, которые лайкнули фильм. Один пользователь может лайкнуть фильм только раз
+            film.getLikes().stream()
+                    .map(Like::getUserId)
+                    .distinct()
+                    .forEach(userId -> likes.add(new Object[]{filmId, userId}));
             jdbcTemplate.batchUpdate(sqlQueryInsertForLikes, likes);
+
+            // Счётчик лайков пересчитываю по таблице LIKES в той же транзакции
+            recountLikes(filmId);
         }
 
         // Проверяю, есть ли разница в жанрах фильма из бд и жанрах фильма, который передали нам для замены
@@ -200,235 +235,156 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     @Override
-    public Collection<Film> getFilms() {
-
-        // Запрос на получение всех фильмов
-        String sqlQueryForGettingFilms = "SELECT F.FILM_ID, F.NAME, F.RELEASE_DATE, F.DURATION, F.DESCRIPTION, M.MPA_ID, M.NAME AS MNAME, LIKE_ID, L.USER_ID, G.GENRE_ID, G.NAME AS GNAME, D.DIRECTOR_ID, D.NAME AS DNAME " +
-                "FROM FILMS AS F " +
-                "LEFT JOIN LIKES AS L on F.FILM_ID = L.FILM_ID " +
-                "LEFT JOIN MPA AS M on F.MPA_ID = M.MPA_ID " +
-                "LEFT JOIN FILM_GENRE_CONNECTION AS FGC on F.FILM_ID = fgc.FILM_ID " +
-                "LEFT JOIN GENRES AS G on FGC.GENRE_ID = G.GENRE_ID " +
-                "LEFT JOIN FILM_DIRECTORS AS FD on FD.FILM_ID = F.FILM_ID " +
-                "LEFT JOIN DIRECTORS AS D on FD.DIRECTOR_ID = d.director_id";
-
-        Film film;
-        Genre genre;
-        Like like;
-        Director director;
-
-        // Мапа айди фильма, сам фильм
-        HashMap<Integer, Film> films = new HashMap<>();
-
-        // Выполнение запроса
-        SqlRowSet filmsFromDb = jdbcTemplate.queryForRowSet(sqlQueryForGettingFilms);
-
-        // Прохожусь по всем строкам
-        while (filmsFromDb.next()) {
-
-            // Если ключ содержится в мапе фильмов
-            if (films.containsKey(filmsFromDb.getInt("FILM_ID"))) {
-
-                // Достаю фильм из мапы
-                film = films.get(filmsFromDb.getInt("FILM_ID"));
-
-                // Отдельно создаю объекты для like и Genres и добавляю их в объект фильма
-                like = createLike(filmsFromDb);
-                genre = createGenre(filmsFromDb);
-                director = createDirector(filmsFromDb);
-
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму
-                if (like != null) {
-                    film.getLikes().add(like);
-                }
-
-                // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-                if (genre != null) {
-                    if (!film.getGenres().contains(genre)) {
-                        film.getGenres().add(genre);
-                    }
-                }
-
-                if (director != null) {
-                    film.getDirectors().add(director);
-                }
-
-                // Если ключа нет в мапе
-            } else {
-
-                // Создаю объект фильма из запроса
-                film = createFilm(filmsFromDb);
-
-                // Отдельно создаю объекты для Like и Genre
-                like = createLike(filmsFromDb);
-                genre = createGenre(filmsFromDb);
-                director = createDirector(filmsFromDb);
-
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму
-                if (like != null) {
-                    film.getLikes().add(like);
-                }
-
-                // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-                if (genre != null) {
-                    if (!film.getGenres().contains(genre)) {
-                        film.getGenres().add(genre);
-                    }
-                }
-
-                if (director != null) {
-                    film.getDirectors().add(director);
-                }
+    public void streamFilms(View view, Consumer<Film> consumer) {
+
+        // Фильмы читаются пачками по ключу FILM_ID, так что в памяти находится только одна пачка,
+        // а соединение с бд не занято, пока пачка пишется в ответ
+        int lastFilmId = 0;
+        List<Film> batch;
+        do {
+            batch = getFilmsAfter(lastFilmId, FILMS_BATCH_SIZE, view);
+            batch.forEach(consumer);
+            if (!batch.isEmpty()) {
+                lastFilmId = batch.get(batch.size() - 1).getId();
+            }
+        } while (batch.size() == FILMS_BATCH_SIZE);
+    }
 
-                films.put(film.getId(), film);
+    @Override
+    public List<Film> getFilmsAfter(int filmId, int limit, View view) {
+
+        // Запрос на получение следующих limit фильмов после фильма с айди filmId. Поиск начала идёт по первичному ключу
+        String sqlQuery = SELECT_FILMS +
+                "WHERE F.FILM_ID > ? " +
+                "ORDER BY F.FILM_ID " +
+                "LIMIT ?";
+        return queryFilms(view, sqlQuery, filmId, limit);
+    }
 
-            }
+    @Override
+    public List<Film> getFilmsByIds(Collection<Integer> filmIds) {
+        List<Integer> ids = new ArrayList<>(filmIds);
+        List<Film> films = new ArrayList<>();
+
+        // Не больше FILMS_BATCH_SIZE айди в одном условии IN
+        for (int from = 0; from < ids.size(); from += FILMS_BATCH_SIZE) {
+            List<Integer> batch = ids.subList(from, Math.min(from + FILMS_BATCH_SIZE, ids.size()));
+            String sqlQuery = SELECT_FILMS +
+                    "WHERE F.FILM_ID IN (" + placeholders(batch.size()) + ") " +
+                    "ORDER BY F.FILM_ID";
+            films.addAll(queryFilms(sqlQuery, batch.toArray()));
         }
-
-        return films.values().stream().sorted(Comparator.comparingInt(Film::getId)).collect(Collectors.toList());
+        return films;
     }
 
     @Override
     public Optional<Film> getFilmById(int id) {
 
-        // Запрос на получение фильма по id
-        String sqlQueryForOneFilm = "SELECT F.FILM_ID, F.NAME, F.RELEASE_DATE, F.DURATION, " +
-                "F.DESCRIPTION, M.MPA_ID, M.NAME AS MNAME, LIKE_ID, L.USER_ID, G.GENRE_ID, " +
-                "G.NAME AS GNAME, D.DIRECTOR_ID, D.NAME AS DNAME " +
-                "FROM FILMS AS F " +
-                "LEFT JOIN LIKES AS L on F.FILM_ID = L.FILM_ID " +
-                "LEFT JOIN MPA AS M on F.MPA_ID = M.MPA_ID " +
-                "LEFT JOIN FILM_GENRE_CONNECTION AS FGC on F.FILM_ID = fgc.FILM_ID " +
-                "LEFT JOIN GENRES AS G on FGC.GENRE_ID = G.GENRE_ID " +
-                "LEFT JOIN FILM_DIRECTORS AS FD on FD.FILM_ID = F.FILM_ID " +
-                "LEFT JOIN DIRECTORS AS D on FD.DIRECTOR_ID = d.director_id " +
+        // Запрос на получение фильма по id. Связи фильма достаются отдельными запросами
+        String sqlQueryForOneFilm = SELECT_FILMS +
                 "WHERE F.FILM_ID = ?";
 
-        Film film;
-        Genre genre;
-        Like like;
-        Director director;
-
         // Выполнение запроса
         SqlRowSet rowsForOneFilm = jdbcTemplate.queryForRowSet(sqlQueryForOneFilm, id);
 
-        // Прохожусь по 1 строке результата запроса. Это делается, так как нам нужно как-то ОДИН раз собрать основную информацию о фильме
-        if (rowsForOneFilm.next()) {
-
-            log.debug("Найден объект с id {}, и именем {}", rowsForOneFilm.getInt("FILM_ID"), rowsForOneFilm.getString("NAME"));
-
-            // Создаю объект фильма из запроса
-            film = createFilm(rowsForOneFilm);
-
-            // Отдельно создаю объекты для Like и Genre
-            like = createLike(rowsForOneFilm);
-            genre = createGenre(rowsForOneFilm);
-            director = createDirector(rowsForOneFilm);
-
-            // Если лайк нашёлся и создался нормально, то я добавляю его фильму
-            if (like != null) {
-                film.getLikes().add(like);
-            }
-
-            // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-            if (genre != null && !film.getGenres().contains(genre)) {
-                film.getGenres().add(genre);
-            }
-
-            if (director != null) {
-                film.getDirectors().add(director);
-            }
-
-            // Если больше строк нет, то возвращаю то, что есть
-            if (rowsForOneFilm.isLast()) {
-                return Optional.of(film);
-            }
-
-            log.debug("В таблице больше 1 строки, так что начинаю заполнять объект film дополнительной информацией");
+        if (!rowsForOneFilm.next()) {
+            return Optional.empty();
+        }
 
-            // Если больше 1 строки, то они отличаются только по Genres или Likes, так что меняю их
-            while (rowsForOneFilm.next()) {
+        log.debug("Найден объект с id {}, и именем {}", rowsForOneFilm.getInt("FILM_ID"), rowsForOneFilm.getString("NAME"));
 
-                // Отдельно создаю объекты для like и Genres и добавляю их в объект фильма
-                like = createLike(rowsForOneFilm);
-                genre = createGenre(rowsForOneFilm);
-                director = createDirector(rowsForOneFilm);
+        // Создаю объект фильма из запроса
+        Film film = createFilm(rowsForOneFilm);
 
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму
-                if (like != null) {
-                    film.getLikes().add(like);
-                }
+        // Достаю лайки, жанры и режиссёров только этого фильма
+        fillFilmsRelations(Map.of(film.getId(), film), View.FULL, "WHERE FILM_ID = ?", id);
 
-                // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-                if (genre != null) {
-                    if (!film.getGenres().contains(genre)) {
-                        film.getGenres().add(genre);
-                    }
-                }
+        return Optional.of(film);
+    }
 
-                if (director != null) {
-                    film.getDirectors().add(director);
-                }
+    @Override
+    public boolean existsFilm(int id) {
+        String sqlQuery = "SELECT EXISTS(SELECT 1 FROM FILMS WHERE FILM_ID = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sqlQuery, Boolean.class, id));
+    }
 
-            }
-            return Optional.of(film);
-        }
-        return Optional.empty();
+    @Override
+    public List<Film> getPopular(int count) {
+
+        // Запрос на получение самых популярных фильмов. Сортировка и LIMIT выполняются в бд,
+        // так что в память попадают только count фильмов, а не весь каталог
+        String sqlQuery = SELECT_FILMS +
+                "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID " +
+                "LIMIT ?";
+        return queryFilms(sqlQuery, count);
     }
 
     @Override
     public List<Film> getPopularByGenre(int count, int genreId) {
-        String sqlQuery = "SELECT * " +
-                "FROM FILMS AS F " +
-                "LEFT JOIN LIKES AS L on F.FILM_ID = L.FILM_ID " +
-                "LEFT JOIN FILM_GENRE_CONNECTION AS FGC on F.FILM_ID = fgc.FILM_ID " +
-                "WHERE FGC.GENRE_ID = ?" +
-                "GROUP BY f.film_id ORDER BY COUNT(l.user_id) DESC LIMIT ?";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), genreId, count);
-
+        String sqlQuery = SELECT_FILMS +
+                "WHERE F.FILM_ID IN (SELECT FILM_ID FROM FILM_GENRE_CONNECTION WHERE GENRE_ID = ?) " +
+                "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID LIMIT ?";
+        return queryFilms(sqlQuery, genreId, count);
     }
 
     @Override
     public List<Film> getPopularByYear(int count, int year) {
-        String sqlQuery = "SELECT * " +
-                "FROM FILMS AS F " +
-                "LEFT JOIN LIKES AS L on F.FILM_ID = L.FILM_ID " +
-                "WHERE EXTRACT(YEAR FROM f.release_date) = ? " +
-                "GROUP BY f.film_id ORDER BY COUNT(l.user_id) DESC LIMIT ?";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), year, count);
+        // Год задаётся диапазоном дат, чтобы работал индекс по RELEASE_DATE
+        String sqlQuery = SELECT_FILMS +
+                "WHERE F.RELEASE_DATE >= ? AND F.RELEASE_DATE < ? " +
+                "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID LIMIT ?";
+        return queryFilms(sqlQuery, yearStart(year), yearStart(year + 1), count);
     }
 
     @Override
     public List<Film> getPopularByGenreByYear(int count, int genreId, int year) {
-        String sqlQuery = "SELECT * FROM films " +
-                "INNER JOIN FILM_GENRE_CONNECTION ON FILM_GENRE_CONNECTION.film_id = films.film_id " +
-                "LEFT JOIN LIKES AS L on films.FILM_ID = L.FILM_ID " +
-                "WHERE EXTRACT(YEAR FROM films.release_date) = ? AND FILM_GENRE_CONNECTION.genre_id = ?" +
-                "GROUP BY films.film_id ORDER BY COUNT(l.user_id) DESC LIMIT ?";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), year, genreId, count);
+        String sqlQuery = SELECT_FILMS +
+                "WHERE F.RELEASE_DATE >= ? AND F.RELEASE_DATE < ? " +
+                "AND F.FILM_ID IN (SELECT FILM_ID FROM FILM_GENRE_CONNECTION WHERE GENRE_ID = ?) " +
+                "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID LIMIT ?";
+        return queryFilms(sqlQuery, yearStart(year), yearStart(year + 1), genreId, count);
     }
 
     @Override
     public Optional<Film> putLikeToFilm(int filmId, int userId) {
+        // Лайк и счётчик лайков меняются в одной транзакции
+        return transactionTemplate.execute(status -> insertLike(filmId, userId));
+    }
 
-        // Мапа для добавления лайка фильму.
-        // Ключ - название столбца, значение - значение
-        HashMap<String, Object> values = new HashMap<>();
-        values.put("FILM_ID", filmId);
-        values.put("USER_ID", userId);
+    private Optional<Film> insertLike(int filmId, int userId) {
+
+        // Запрос на добавление лайка, только если этот пользователь ещё не лайкал фильм.
+        // Уникальный ключ (FILM_ID, USER_ID) делает проверку одним поиском по индексу
+        String sqlQueryForInsert = "INSERT INTO LIKES(FILM_ID, USER_ID) " +
+                "SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM LIKES WHERE FILM_ID = ? AND USER_ID = ?)";
 
         try {
-            int id = simpleJdbcInsertForLikes.executeAndReturnKey(values).intValue();
-            log.debug("Лайк film с id {} поставлен пользователем с id {} под следующим id: {}", filmId, userId, id);
-            return getFilmById(filmId);
+            int countOfInsertedRows = jdbcTemplate.update(sqlQueryForInsert, filmId, userId, filmId, userId);
+            if (countOfInsertedRows == 1) {
+                jdbcTemplate.update("UPDATE FILMS SET LIKE_COUNT = LIKE_COUNT + 1 WHERE FILM_ID = ?", filmId);
+                log.debug("Лайк film с id {} поставлен пользователем с id {}", filmId, userId);
+            } else {
+                log.debug("Пользователь с id {} уже ставил лайк film с id {}", userId, filmId);
+            }
+        } catch (DuplicateKeyException exception) {
+            // Такой же лайк успел вставить параллельный запрос, повторный лайк ничего не меняет
+            log.debug("Пользователь с id {} уже ставил лайк film с id {}", userId, filmId);
         } catch (DataIntegrityViolationException exception) {
+            // Фильма или пользователя нет
             return Optional.empty();
         }
+        return getFilmById(filmId);
 
     }
 
     @Override
     public Optional<Film> deleteLikeFromFilm(int filmId, int userId) {
+        // Лайк и счётчик лайков меняются в одной транзакции
+        return transactionTemplate.execute(status -> removeLike(filmId, userId));
+    }
+
+    private Optional<Film> removeLike(int filmId, int userId) {
         // Запрос на удаление лайка
         String sqlQueryForDelete = "DELETE " +
                 "FROM LIKES " +
@@ -438,6 +394,7 @@ public class FilmDbStorage implements FilmStorage {
         int countOfUpdatedRows = jdbcTemplate.update(sqlQueryForDelete, filmId, userId);
 
         if (countOfUpdatedRows == 1) {
+            jdbcTemplate.update("UPDATE FILMS SET LIKE_COUNT = LIKE_COUNT - 1 WHERE FILM_ID = ?", filmId);
             log.debug("Убран лайк с film с id {} поставленный пользователем с id {} ", filmId, userId);
             return getFilmById(filmId);
         }
@@ -446,122 +403,128 @@ public class FilmDbStorage implements FilmStorage {
         return Optional.empty();
     }
 
+    // Айди найденных фильмов берутся из поискового индекса, а из бд загружаются только сами фильмы по айди
     @Override
     public List<Film> searchByTitle(String query) {
-        String sqlQuery = "SELECT FILMS.FILM_ID, FILMS.NAME, FILMS.DESCRIPTION, FILMS.RELEASE_DATE, FILMS.DURATION, FILMS.MPA_ID FROM films " +
-                "LEFT JOIN likes ON films.film_id = likes.film_id " +
-                "WHERE LOWER(films.name) LIKE LOWER(?) " +
-                "GROUP BY films.film_id ";
-        String searchQuery = "%" + query + "%";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), searchQuery);
+        return getFilmsByIds(filmSearchIndex.searchByTitle(query));
     }
 
     @Override
     public List<Film> searchByDirector(String query) {
-        String sqlQuery = "SELECT FILMS.FILM_ID, FILMS.NAME, FILMS.DESCRIPTION, FILMS.RELEASE_DATE, FILMS.DURATION, FILMS.MPA_ID, DIRECTORS.NAME FROM films " +
-                "LEFT JOIN likes ON films.film_id = likes.film_id " +
-                "LEFT JOIN film_directors ON films.film_id = film_directors.film_id " +
-                "LEFT JOIN directors ON film_directors.director_id = directors.director_id " +
-                "WHERE LOWER(directors.name) LIKE LOWER(?) " +
-                "GROUP BY films.film_id ";
-        String searchQuery = "%" + query + "%";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), searchQuery);
+        return getFilmsByIds(filmSearchIndex.searchByDirector(query));
     }
 
     @Override
     public List<Film> searchByTitleByDirector(String query) {
-        String sqlQuery = "SELECT FILMS.FILM_ID, FILMS.NAME, FILMS.DESCRIPTION, FILMS.RELEASE_DATE, FILMS.DURATION, FILMS.MPA_ID, DIRECTORS.NAME FROM films " +
-                "LEFT JOIN likes ON films.film_id = likes.film_id " +
-                "LEFT JOIN film_directors ON films.film_id = film_directors.film_id " +
-                "LEFT JOIN directors ON film_directors.director_id = directors.director_id " +
-                "WHERE LOWER(films.name) LIKE LOWER(?) OR LOWER(directors.name) LIKE LOWER(?)" +
-                "GROUP BY films.film_id ";
-        String searchQuery = "%" + query + "%";
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> makeFilm(rs), searchQuery, searchQuery);
-    }
-
-    // --- начало блока (формирование film)  ---
-    private Film makeFilm(ResultSet rs) throws SQLException {
-        int id = rs.getInt("film_id");
-        String name = rs.getString("name");
-        String description = rs.getString("description");
-        LocalDate releaseDate = rs.getDate("release_date").toLocalDate();
-        int duration = rs.getInt("duration");
-        int mpaId = rs.getInt("mpa_id");
-        Mpa mpa = mpaStorage.getMpaById(mpaId).get();
-        ArrayList<Genre> genres = getFilmGenreByFilmId(id);
-        HashSet<Like> likes = getLikes(id);
-        List<Director> directors = getDirectorsByFilmId(id);
-        Film film = Film.builder().name(name).description(description).releaseDate(releaseDate).duration(duration)
-                .mpa(mpa).build();
-        film.getGenres().addAll(genres);
-        film.getLikes().addAll(likes);
-        film.getDirectors().addAll(directors);
-        film.setId(id);
-        return film;
-    }
-
-    public List<Director> getDirectorsByFilmId(int filmId) {
-        String sqlQuery = "SELECT * FROM directors WHERE director_id IN " +
-                "(SELECT director_id FROM film_directors WHERE film_id = ?) ORDER BY directors.name DESC ";
-        SqlRowSet directorsRows = jdbcTemplate.queryForRowSet(sqlQuery, filmId);
-        List<Director> filmDirectors = new ArrayList<>();
-        while (directorsRows.next()) {
-            Director directorFilm = new Director(directorsRows.getInt("director_id"),
-                    directorsRows.getString("name"));
-            filmDirectors.add(directorFilm);
-        }
-        return filmDirectors;
-    }
-
-    public ArrayList<Genre> getFilmGenreByFilmId(int filmId) {
-        String sqlQuery = "SELECT * FROM genres WHERE genre_id in " +
-                "(SELECT genre_id FROM FILM_GENRE_CONNECTION WHERE film_id = ?) ORDER BY genre_id ";
-        SqlRowSet genresRows = jdbcTemplate.queryForRowSet(sqlQuery, filmId);
-        ArrayList<Genre> filmGenres = new ArrayList<>();
-        while (genresRows.next()) {
-            Genre genreFilm = new Genre(genresRows.getInt("genre_id"),
-                    genresRows.getString("name"));
-            filmGenres.add(genreFilm);
-        }
-        return filmGenres;
+        return getFilmsByIds(filmSearchIndex.searchByTitleByDirector(query));
     }
 
-    public HashSet<Like> getLikes(int filmId) {
-        String sqlQuery = "SELECT * FROM likes WHERE film_id = ?";
-        SqlRowSet likesRows = jdbcTemplate.queryForRowSet(sqlQuery, filmId);
-        HashSet<Like> likes = new HashSet<>();
-        while (likesRows.next()) {
-            Like like = createLike(likesRows);
-            likes.add(like);
-        }
-        return likes;
+    @Override
+    public List<String> getTitleSuggestions(String query, int count) {
+        return filmSearchIndex.suggestTitles(query, count);
     }
-    // --- конец блока ---
 
-    private Like createLike(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("LIKE_ID") != 0) {
-            return new Like(sqlRowSet.getInt("LIKE_ID"),
-                    sqlRowSet.getInt("FILM_ID"),
-                    sqlRowSet.getInt("USER_ID"));
+    @Override
+    public List<String> getDirectorSuggestions(String query, int count) {
+        return filmSearchIndex.suggestDirectors(query, count);
+    }
+
+    // Выполняет запрос, который начинается с SELECT_FILMS, и загружает связи найденных фильмов.
+    // На любое количество фильмов уходит 1 + 3 * (количество пачек по FILMS_BATCH_SIZE) запросов
+    private List<Film> queryFilms(String sqlQuery, Object... args) {
+        return queryFilms(View.FULL, sqlQuery, args);
+    }
+
+    // В виде SUMMARY лайки фильмов не загружаются
+    private List<Film> queryFilms(View view, String sqlQuery, Object... args) {
+
+        // Мапа айди фильма, сам фильм. LinkedHashMap сохраняет порядок из запроса
+        LinkedHashMap<Integer, Film> films = new LinkedHashMap<>();
+
+        SqlRowSet filmsFromDb = jdbcTemplate.queryForRowSet(sqlQuery, args);
+        while (filmsFromDb.next()) {
+            Film film = createFilm(filmsFromDb);
+            films.put(film.getId(), film);
         }
-        return null;
+
+        fillFilmsRelationsByIds(films, view);
+
+        return new ArrayList<>(films.values());
     }
 
-    private Genre createGenre(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("GENRE_ID") != 0) {
-            return new Genre(sqlRowSet.getInt("GENRE_ID"),
-                    sqlRowSet.getString("GNAME"));
+    // Загружает связи фильмов запросами с условием FILM_ID IN (...), не больше FILMS_BATCH_SIZE айди в одном запросе
+    private void fillFilmsRelationsByIds(Map<Integer, Film> films, View view) {
+        List<Integer> ids = new ArrayList<>(films.keySet());
+        for (int from = 0; from < ids.size(); from += FILMS_BATCH_SIZE) {
+            List<Integer> batch = ids.subList(from, Math.min(from + FILMS_BATCH_SIZE, ids.size()));
+            fillFilmsRelations(films, view, "WHERE FILM_ID IN (" + placeholders(batch.size()) + ")", batch.toArray());
         }
-        return null;
     }
 
-    private Director createDirector(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("DIRECTOR_ID") != 0) {
-            return new Director(sqlRowSet.getInt("DIRECTOR_ID"),
-                    sqlRowSet.getString("DNAME"));
+    // --- начало блока (загрузка связей фильмов) ---
+    // Каждая связь достаётся своим запросом по ключу FILM_ID, так что количество строк равно
+    // сумме лайков, жанров и режиссёров, а не их произведению.
+    // condition - условие на FILM_ID, которое дописывается к каждому запросу (пустая строка - без условия)
+    private void fillFilmsRelations(Map<Integer, Film> films, View view, String condition, Object... args) {
+        if (films.isEmpty()) {
+            return;
+        }
+
+        // Запрос на получение лайков
+        // Лайки упорядочены по пользователю, чтобы они добавлялись в конец LikeSet фильма
+        String sqlQueryForLikes = "SELECT LIKE_ID, FILM_ID, USER_ID " +
+                "FROM LIKES " +
+                condition + " " +
+                "ORDER BY USER_ID";
+
+        // Запрос на получение жанров. Названия жанров берутся из кэша GenreStorage
+        String sqlQueryForGenres = "SELECT FILM_ID, GENRE_ID " +
+                "FROM FILM_GENRE_CONNECTION " +
+                condition + " " +
+                "ORDER BY GENRE_ID";
+
+        // Запрос на получение режиссёров
+        String sqlQueryForDirectors = "SELECT FD.FILM_ID, D.DIRECTOR_ID, D.NAME " +
+                "FROM FILM_DIRECTORS AS FD " +
+                "JOIN DIRECTORS AS D on FD.DIRECTOR_ID = D.DIRECTOR_ID " +
+                condition + " " +
+                "ORDER BY D.DIRECTOR_ID";
+
+        // Строки читаются по одной прямо из ResultSet, чтобы не держать в памяти весь результат
+        if (view == View.FULL) {
+            jdbcTemplate.query(sqlQueryForLikes, rs -> {
+                Film film = films.get(rs.getInt("FILM_ID"));
+                if (film != null) {
+                    film.getLikes().add(new Like(rs.getInt("LIKE_ID"), rs.getInt("FILM_ID"), rs.getInt("USER_ID")));
+                }
+            }, args);
         }
-        return null;
+
+        jdbcTemplate.query(sqlQueryForGenres, rs -> {
+            Film film = films.get(rs.getInt("FILM_ID"));
+            Genre genre = getGenre(rs.getInt("GENRE_ID"));
+            if (film != null && !film.getGenres().contains(genre)) {
+                film.getGenres().add(genre);
+            }
+        }, args);
+
+        jdbcTemplate.query(sqlQueryForDirectors, rs -> {
+            Film film = films.get(rs.getInt("FILM_ID"));
+            if (film != null) {
+                film.getDirectors().add(new Director(rs.getInt("DIRECTOR_ID"), rs.getString("NAME")));
+            }
+        }, args);
+    }
+    // --- конец блока ---
+
+    // Первый день года для условий по RELEASE_DATE
+    private java.sql.Date yearStart(int year) {
+        return java.sql.Date.valueOf(LocalDate.of(year, 1, 1));
+    }
+
+    // Строка вида "?, ?, ?" для условия IN с заданным количеством параметров
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
     }
 
     private Film createFilm(SqlRowSet sqlRowSet) {
@@ -574,14 +537,60 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     private Mpa createMpa(SqlRowSet sqlRowSet) {
-        return new Mpa(sqlRowSet.getInt("MPA_ID"),
-                sqlRowSet.getString("MNAME"));
+        int mpaId = sqlRowSet.getInt("MPA_ID");
+        // Внешний ключ гарантирует, что рейтинг есть в бд. Если его нет в кэше, значит кэш устарел
+        return mpaStorage.getMpaById(mpaId).orElseGet(() -> new Mpa(mpaId, null));
+    }
+
+    private Genre getGenre(int genreId) {
+        return genreStorage.getGenreById(genreId).orElseGet(() -> new Genre(genreId, null));
+    }
+
+    @Override
+    public List<Film> getCommonFilms(int userId, int friendId) {
+
+        // Пересечение лайков двух пользователей. Лайки каждого достаются по индексу (USER_ID, FILM_ID),
+        // так что загружаются только общие фильмы, а не весь каталог
+        String sqlQuery = SELECT_FILMS +
+                "JOIN LIKES AS L1 on L1.FILM_ID = F.FILM_ID " +
+                "JOIN LIKES AS L2 on L2.FILM_ID = F.FILM_ID " +
+                "WHERE L1.USER_ID = ? AND L2.USER_ID = ? " +
+                "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID";
+        return queryFilms(sqlQuery, userId, friendId);
     }
 
     @Override
-    public List<Integer> getFilmsIdByDirectorId(int directorId) {
-        String sqlQuery = "select film_id from film_directors where director_id = ? order by film_id";
-        return jdbcTemplate.queryForList(sqlQuery, Integer.class, directorId);
+    public List<Film> getFilmsByDirectorId(int directorId, boolean sortByYear, int limit, int offset) {
+
+        // Сортировка, LIMIT и OFFSET выполняются в бд, а связи загружаются пачками в queryFilms.
+        // При равных лайках или датах фильмы идут по айди, чтобы страницы не пересекались
+        String sqlQuery = SELECT_FILMS +
+                "JOIN FILM_DIRECTORS AS FD on FD.FILM_ID = F.FILM_ID " +
+                "WHERE FD.DIRECTOR_ID = ? " +
+                (sortByYear ? "ORDER BY F.RELEASE_DATE, F.FILM_ID " : "ORDER BY F.LIKE_COUNT DESC, F.FILM_ID ") +
+                "LIMIT ? OFFSET ?";
+        return queryFilms(sqlQuery, directorId, limit, offset);
+    }
+
+    @Override
+    public int reconcileLikeCounts() {
+
+        // Подзапрос, который считает настоящее количество лайков фильма по таблице LIKES
+        String sqlQueryForCount = "(SELECT COUNT(*) FROM LIKES AS L WHERE L.FILM_ID = F.FILM_ID)";
+
+        // Обновляю только те фильмы, у которых счётчик разошёлся с таблицей LIKES
+        String sqlQuery = "UPDATE FILMS AS F " +
+                "SET LIKE_COUNT = " + sqlQueryForCount + " " +
+                "WHERE LIKE_COUNT <> " + sqlQueryForCount;
+
+        return jdbcTemplate.update(sqlQuery);
+    }
+
+    private void recountLikes(int filmId) {
+        String sqlQuery = "UPDATE FILMS " +
+                "SET LIKE_COUNT = (SELECT COUNT(*) FROM LIKES WHERE FILM_ID = ?) " +
+                "WHERE FILM_ID = ?";
+        jdbcTemplate.update(sqlQuery, filmId, filmId);
     }
 
     @Override
@@ -592,6 +601,7 @@ public class FilmDbStorage implements FilmStorage {
         if (deletedRows != 1) {
             return Optional.empty();
         }
+        filmSearchIndex.removeFilm(filmId);
         return Optional.of(filmId);
     }
 
@@ -0,0 +1,208 @@
+package ru.yandex.practicum.filmorate.storage.film.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.model.Director;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+// Поисковый индекс по названиям фильмов и именам режиссёров для GET /films/search.
+// LIKE '%строка%' не может использовать индекс бд, поэтому названия, имена и связи режиссёров с фильмами
+// загружаются при старте в TrigramIndex, а дальше обновляются FilmDbStorage и DirectorDbStorage
+// после изменения бд. Поиск возвращает айди фильмов без запросов в бд.
+// Изменённый фильм или режиссёр перечитывается из бд под блокировкой записи, а не берётся из запроса:
+// так при параллельных изменениях в индексе остаётся последнее закоммиченное состояние, а не то,
+// чьё обновление индекса пришло последним.
+// Поиски и подсказки идут одновременно под блокировкой чтения, изменения ждут блокировку записи
+@Slf4j
+@Component
+public class FilmSearchIndex {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final TrigramIndex titles = new TrigramIndex();
+    private final TrigramIndex directorNames = new TrigramIndex();
+    // Айди режиссёра, айди его фильмов
+    private final Map<Integer, Set<Integer>> filmsByDirector = new HashMap<>();
+    // Айди фильма, айди его режиссёров
+    private final Map<Integer, Set<Integer>> directorsByFilm = new HashMap<>();
+
+    @Autowired
+    public FilmSearchIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        invalidateCache();
+    }
+
+    // Поиск находит только точное вхождение запроса. Опечатки учитывают только подсказки suggestTitles
+    // и suggestDirectors, чтобы поиск не отдавал фильмы, лишь похожие на запрос
+    public SortedSet<Integer> searchByTitle(String query) {
+        return read(() -> titles.search(query));
+    }
+
+    public SortedSet<Integer> searchByDirector(String query) {
+        return read(() -> findByDirector(query));
+    }
+
+    public SortedSet<Integer> searchByTitleByDirector(String query) {
+        return read(() -> {
+            SortedSet<Integer> filmIds = titles.search(query);
+            filmIds.addAll(findByDirector(query));
+            return filmIds;
+        });
+    }
+
+    // Названия фильмов для автодополнения: сначала те, в которых запрос стоит в начале слова,
+    // а если таких нет, то похожие на запрос с опечаткой
+    public List<String> suggestTitles(String query, int limit) {
+        return read(() -> suggest(titles, query, limit));
+    }
+
+    public List<String> suggestDirectors(String query, int limit) {
+        return read(() -> suggest(directorNames, query, limit));
+    }
+
+    // Перечитывает из бд фильм вместе со списком его режиссёров. Вызывается после коммита изменения фильма
+    public void refreshFilm(int filmId) {
+        write(() -> {
+            removeFilmDirectors(filmId);
+            titles.remove(filmId);
+
+            jdbcTemplate.query("SELECT f.NAME, fd.DIRECTOR_ID " +
+                            "FROM FILMS AS f " +
+                            "LEFT JOIN FILM_DIRECTORS AS fd ON fd.FILM_ID = f.FILM_ID " +
+                            "WHERE f.FILM_ID = ?",
+                    rs -> {
+                        titles.put(filmId, rs.getString("NAME"));
+                        int directorId = rs.getInt("DIRECTOR_ID");
+                        if (!rs.wasNull()) {
+                            addFilmDirector(filmId, directorId);
+                        }
+                    }, filmId);
+        });
+    }
+
+    public void removeFilm(int filmId) {
+        write(() -> {
+            removeFilmDirectors(filmId);
+            titles.remove(filmId);
+        });
+    }
+
+    // Перечитывает из бд имя режиссёра. Вызывается после коммита изменения режиссёра
+    public void refreshDirector(int directorId) {
+        write(() -> {
+            directorNames.remove(directorId);
+            jdbcTemplate.query("SELECT NAME FROM DIRECTORS WHERE DIRECTOR_ID = ?",
+                    rs -> {
+                        directorNames.put(directorId, rs.getString("NAME"));
+                    }, directorId);
+        });
+    }
+
+    // Связи режиссёра с фильмами удаляются в бд каскадно, здесь тоже
+    public void removeDirector(int directorId) {
+        write(() -> {
+            directorNames.remove(directorId);
+            Set<Integer> filmIds = filmsByDirector.remove(directorId);
+            if (filmIds != null) {
+                for (Integer filmId : filmIds) {
+                    Set<Integer> directorIds = directorsByFilm.get(filmId);
+                    directorIds.remove(directorId);
+                    if (directorIds.isEmpty()) {
+                        directorsByFilm.remove(filmId);
+                    }
+                }
+            }
+        });
+    }
+
+    // Перечитывает индекс из бд. Это редкая операция, поэтому поиски ждут окончания загрузки
+    public void invalidateCache() {
+        write(() -> {
+            titles.clear();
+            directorNames.clear();
+            filmsByDirector.clear();
+            directorsByFilm.clear();
+
+            jdbcTemplate.query("SELECT FILM_ID, NAME FROM FILMS",
+                    rs -> {
+                        titles.put(rs.getInt("FILM_ID"), rs.getString("NAME"));
+                    });
+            jdbcTemplate.query("SELECT DIRECTOR_ID, NAME FROM DIRECTORS",
+                    rs -> {
+                        directorNames.put(rs.getInt("DIRECTOR_ID"), rs.getString("NAME"));
+                    });
+            jdbcTemplate.query("SELECT FILM_ID, DIRECTOR_ID FROM FILM_DIRECTORS",
+                    rs -> {
+                        addFilmDirector(rs.getInt("FILM_ID"), rs.getInt("DIRECTOR_ID"));
+                    });
+
+            log.debug("В поисковый индекс загружено {} фильмов и {} режиссёров", titles.size(), directorNames.size());
+        });
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable writer) {
+        lock.writeLock().lock();
+        try {
+            writer.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private SortedSet<Integer> findByDirector(String query) {
+        SortedSet<Integer> filmIds = new TreeSet<>();
+        for (Integer directorId : directorNames.search(query)) {
+            filmIds.addAll(filmsByDirector.getOrDefault(directorId, Collections.emptySet()));
+        }
+        return filmIds;
+    }
+
+    private List<String> suggest(TrigramIndex index, String query, int limit) {
+        List<Integer> ids = index.complete(query, limit);
+        if (ids.isEmpty()) {
+            ids = index.searchFuzzy(query, limit);
+        }
+
+        // У разных фильмов бывают одинаковые названия
+        Set<String> suggestions = new LinkedHashSet<>();
+        for (Integer id : ids) {
+            suggestions.add(index.getText(id));
+        }
+        return new ArrayList<>(suggestions);
+    }
+
+    private void addFilmDirector(int filmId, int directorId) {
+        filmsByDirector.computeIfAbsent(directorId, key -> new HashSet<>()).add(filmId);
+        directorsByFilm.computeIfAbsent(filmId, key -> new HashSet<>()).add(directorId);
+    }
+
+    private void removeFilmDirectors(int filmId) {
+        Set<Integer> directorIds = directorsByFilm.remove(filmId);
+        if (directorIds == null) {
+            return;
+        }
+        for (Integer directorId : directorIds) {
+            Set<Integer> filmIds = filmsByDirector.get(directorId);
+            filmIds.remove(filmId);
+            if (filmIds.isEmpty()) {
+                filmsByDirector.remove(directorId);
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package ru.yandex.practicum.filmorate.storage.film.dao;
+
+import java.util.*;
+
+// Инвертированный индекс строк по триграммам: для каждой тройки подряд идущих символов хранятся айди строк,
+// в которых она встречается. Поиск подстроки берёт самый короткий список айди среди триграмм запроса
+// и проверяет подстроку только у этих строк, поэтому не просматривает все строки.
+// В запросе короче трёх символов нет триграмм, поэтому для них отдельно хранятся айди строк по одиночным символам
+// и парам символов. Кроме того, хранятся отдельные слова строк для автодополнения по началу слова.
+// Строки и запросы сравниваются без учёта регистра. Поиски не меняют индекс и могут идти одновременно,
+// а изменения нужно выполнять, пока поисков нет
+public class TrigramIndex {
+
+    // Какая доля триграмм запроса должна быть в строке, чтобы строка считалась похожей на запрос с опечаткой
+    private static final double FUZZY_THRESHOLD = 0.4;
+
+    // Строки как есть и в нижнем регистре
+    private final Map<Integer, String> originals = new HashMap<>();
+    private final Map<Integer, String> texts = new HashMap<>();
+    // Айди хранятся в отсортированных массивах int, а не в множествах Integer,
+    // иначе на миллионе строк списки занимают в несколько раз больше памяти
+    private final Map<Long, IdList> postings = new HashMap<>();
+    // Символ или пара символов, упакованные в int, айди строк, где они встречаются
+    private final Map<Integer, IdList> unigrams = new HashMap<>();
+    private final Map<Integer, IdList> bigrams = new HashMap<>();
+    // Слово, айди строк с этим словом. Слова упорядочены, поэтому слова с одним началом идут подряд
+    private final TreeMap<String, IdList> words = new TreeMap<>();
+
+    public void put(int id, String text) {
+        remove(id);
+        if (text == null) {
+            return;
+        }
+        String normalized = normalize(text);
+        originals.put(id, text);
+        texts.put(id, normalized);
+        for (long trigram : trigrams(pad(normalized))) {
+            postings.computeIfAbsent(trigram, key -> new IdList()).add(id);
+        }
+        for (int unigram : shortGrams(normalized, 1)) {
+            unigrams.computeIfAbsent(unigram, key -> new IdList()).add(id);
+        }
+        for (int bigram : shortGrams(normalized, 2)) {
+            bigrams.computeIfAbsent(bigram, key -> new IdList()).add(id);
+        }
+        for (String word : words(normalized)) {
+            words.computeIfAbsent(word, key -> new IdList()).add(id);
+        }
+    }
+
+    public void remove(int id) {
+        originals.remove(id);
+        String text = texts.remove(id);
+        if (text == null) {
+            return;
+        }
+        for (long trigram : trigrams(pad(text))) {
+            IdList ids = postings.get(trigram);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+        removeShortGrams(unigrams, shortGrams(text, 1), id);
+        removeShortGrams(bigrams, shortGrams(text, 2), id);
+        // Слово может встретиться в строке несколько раз
+        for (String word : new HashSet<>(words(text))) {
+            IdList ids = words.get(word);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                words.remove(word);
+            }
+        }
+    }
+
+    public String getText(int id) {
+        return originals.get(id);
+    }
+
+    public int size() {
+        return texts.size();
+    }
+
+    public void clear() {
+        originals.clear();
+        texts.clear();
+        postings.clear();
+        unigrams.clear();
+        bigrams.clear();
+        words.clear();
+    }
+
+    // Айди строк, которые содержат query, по возрастанию
+    public SortedSet<Integer> search(String query) {
+        String normalized = normalize(query);
+        Set<Long> queryTrigrams = trigrams(normalized);
+
+        SortedSet<Integer> found = new TreeSet<>();
+
+        // Пустой запрос есть в любой строке
+        if (normalized.isEmpty()) {
+            found.addAll(texts.keySet());
+            return found;
+        }
+        // В запросе короче трёх символов нет триграмм. Он сам - символ или пара символов строки,
+        // поэтому список айди по нему и есть ответ, и строки не нужно проверять
+        if (queryTrigrams.isEmpty()) {
+            Map<Integer, IdList> grams = normalized.length() == 1 ? unigrams : bigrams;
+            IdList ids = grams.getOrDefault(shortGrams(normalized, normalized.length()).iterator().next(), IdList.EMPTY);
+            for (int i = 0; i < ids.size(); i++) {
+                found.add(ids.get(i));
+            }
+            return found;
+        }
+
+        IdList candidates = null;
+        for (long trigram : queryTrigrams) {
+            IdList ids = postings.getOrDefault(trigram, IdList.EMPTY);
+            if (candidates == null || ids.size() < candidates.size()) {
+                candidates = ids;
+            }
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            int id = candidates.get(i);
+            if (texts.get(id).contains(normalized)) {
+                found.add(id);
+            }
+        }
+        return found;
+    }
+
+    // Айди не больше limit строк, похожих на query с учётом опечаток, от самых похожих.
+    // Похожесть - доля триграмм запроса, которые есть в строке. Края запроса дополняются пробелами,
+    // чтобы опечатка в коротком слове не убирала все его триграммы
+    public List<Integer> searchFuzzy(String query, int limit) {
+        Set<Long> queryTrigrams = trigrams(pad(normalize(query).strip()));
+        if (queryTrigrams.isEmpty()) {
+            return List.of();
+        }
+
+        int minShared = (int) Math.ceil(queryTrigrams.size() * FUZZY_THRESHOLD);
+        List<IdList> lists = new ArrayList<>();
+        for (long trigram : queryTrigrams) {
+            IdList ids = postings.get(trigram);
+            if (ids != null) {
+                lists.add(ids);
+            }
+        }
+        // Строке не набрать нужное количество общих триграмм, если столько триграмм запроса вообще нет в индексе
+        if (lists.size() < minShared) {
+            return List.of();
+        }
+
+        // Списки айди отсортированы, поэтому они сливаются по возрастанию айди, и одинаковые айди идут подряд.
+        // Так количество общих с запросом триграмм считается без общего рабочего массива на все айди,
+        // и одновременные поиски не мешают друг другу
+        List<int[]> similar = new ArrayList<>();
+        PostingsMerge merge = new PostingsMerge(lists);
+        int currentId = -1;
+        int shared = 0;
+        while (merge.hasNext()) {
+            int id = merge.next();
+            if (id != currentId) {
+                if (shared >= minShared) {
+                    similar.add(new int[]{currentId, shared});
+                }
+                currentId = id;
+                shared = 0;
+            }
+            shared++;
+        }
+        if (shared >= minShared) {
+            similar.add(new int[]{currentId, shared});
+        }
+        // Сначала самые похожие, при равной похожести по айди
+        similar.sort((first, second) -> first[1] != second[1]
+                ? Integer.compare(second[1], first[1])
+                : Integer.compare(first[0], second[0]));
+
+        List<Integer> found = new ArrayList<>();
+        for (int[] entry : similar.subList(0, Math.min(limit, similar.size()))) {
+            found.add(entry[0]);
+        }
+        return found;
+    }
+
+    // Айди не больше limit строк, в которых query стоит в начале слова, для автодополнения.
+    // Последнее слово запроса может быть недописанным. Строки идут в порядке подходящих слов,
+    // поэтому просматриваются только слова с нужным началом, а не все строки
+    public List<Integer> complete(String query, int limit) {
+        Set<Integer> found = new LinkedHashSet<>();
+        findWordStarts(normalize(query).stripLeading(), found, limit);
+        return new ArrayList<>(found);
+    }
+
+    // Добавляет в found айди строк, в которых normalized стоит в начале слова, пока их не наберётся limit.
+    // Строки просматриваются через слова с тем же началом, что и последнее слово запроса
+    private void findWordStarts(String normalized, Set<Integer> found, int limit) {
+        List<String> queryWords = words(normalized);
+        if (queryWords.isEmpty()) {
+            return;
+        }
+        String prefix = queryWords.get(queryWords.size() - 1);
+
+        for (Map.Entry<String, IdList> entry : words.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            IdList ids = entry.getValue();
+            for (int i = 0; i < ids.size(); i++) {
+                if (found.size() == limit) {
+                    return;
+                }
+                if (startsWord(texts.get(ids.get(i)), normalized)) {
+                    found.add(ids.get(i));
+                }
+            }
+        }
+    }
+
+    private static boolean startsWord(String text, String query) {
+        for (int index = text.indexOf(query); index >= 0; index = text.indexOf(query, index + 1)) {
+            if (index == 0 || !Character.isLetterOrDigit(text.charAt(index - 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static String pad(String text) {
+        return " " + text + " ";
+    }
+
+    // Слова - это последовательности букв и цифр
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(text.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // Символы или пары символов строки. Пара упаковывается в одно число по 16 бит на символ
+    private static Set<Integer> shortGrams(String text, int length) {
+        Set<Integer> grams = new HashSet<>();
+        for (int i = 0; i + length <= text.length(); i++) {
+            grams.add(length == 1 ? text.charAt(i) : (text.charAt(i) << 16) | text.charAt(i + 1));
+        }
+        return grams;
+    }
+
+    private static void removeShortGrams(Map<Integer, IdList> grams, Set<Integer> keys, int id) {
+        for (int key : keys) {
+            IdList ids = grams.get(key);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                grams.remove(key);
+            }
+        }
+    }
+
+    // Три символа по 16 бит упаковываются в одно число
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    // Слияние нескольких IdList по возрастанию айди. Куча хранит номера списков,
+    // наверху - список с наименьшим ещё не взятым айди
+    private static final class PostingsMerge {
+        private final IdList[] lists;
+        private final int[] positions;
+        private final int[] heap;
+        private int heapSize;
+
+        private PostingsMerge(List<IdList> lists) {
+            this.lists = lists.toArray(new IdList[0]);
+            this.positions = new int[this.lists.length];
+            this.heap = new int[this.lists.length];
+            for (int i = 0; i < this.lists.length; i++) {
+                if (!this.lists[i].isEmpty()) {
+                    heap[heapSize++] = i;
+                }
+            }
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        private boolean hasNext() {
+            return heapSize > 0;
+        }
+
+        private int next() {
+            int list = heap[0];
+            int id = lists[list].get(positions[list]++);
+            if (positions[list] == lists[list].size()) {
+                heap[0] = heap[--heapSize];
+            }
+            siftDown(0);
+            return id;
+        }
+
+        private int head(int heapIndex) {
+            int list = heap[heapIndex];
+            return lists[list].get(positions[list]);
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int smallest = index;
+                int left = 2 * index + 1;
+                int right = left + 1;
+                if (left < heapSize && head(left) < head(smallest)) {
+                    smallest = left;
+                }
+                if (right < heapSize && head(right) < head(smallest)) {
+                    smallest = right;
+                }
+                if (smallest == index) {
+                    return;
+                }
+                int swap = heap[index];
+                heap[index] = heap[smallest];
+                heap[smallest] = swap;
+                index = smallest;
+            }
+        }
+    }
+
+    // Отсортированный список айди без повторов. Айди новых строк обычно больше старых,
+    // так что добавление почти всегда идёт в конец массива
+    private static final class IdList {
+        private static final IdList EMPTY = new IdList();
+
+        private int[] ids = new int[2];
+        private int size;
+
+        private int size() {
+            return size;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private int get(int index) {
+            return ids[index];
+        }
+
+        private void add(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        private void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+    }
+}
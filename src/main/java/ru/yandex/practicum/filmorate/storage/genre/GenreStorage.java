@@ -9,4 +9,7 @@ public interface GenreStorage {
     Optional<Genre> getGenreById(int id);
 
     Collection<Genre> getGenres();
+
+    // Перечитывает закэшированные данные из бд
+    void invalidateCache();
 }
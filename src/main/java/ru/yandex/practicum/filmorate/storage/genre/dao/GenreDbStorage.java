@@ -10,6 +10,7 @@ import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Slf4j
@@ -18,72 +19,79 @@ public class GenreDbStorage implements GenreStorage {
 
     private final JdbcTemplate jdbcTemplate;
 
+    // Жанры из бд, где индекс массива - айди жанра. Таблица маленькая и меняется только скриптом data.sql,
+    // поэтому она целиком загружается при старте, а потом жанры достаются из массива без запросов в бд.
+    // Массив не меняется после загрузки, invalidateCache подменяет его целиком
+    private volatile Genre[] genresById;
+
     @Autowired
     public GenreDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        invalidateCache();
     }
 
     @Override
     public Optional<Genre> getGenreById(int id) {
-        // Запрос на получение жанра по id
-        String sqlQuery = "SELECT GENRE_ID, NAME " +
-                "FROM GENRES " +
-                "WHERE GENRE_ID = ?";
-
-        Genre genre;
+        Genre[] genres = genresById;
 
-        // Выполнение запроса
-        SqlRowSet userRows = jdbcTemplate.queryForRowSet(sqlQuery, id);
+        if (id <= 0 || id >= genres.length || genres[id] == null) {
+            return Optional.empty();
+        }
 
-        // Прохожусь по 1 строке результата запроса
-        if (userRows.next()) {
+        // Отдаю копию, чтобы никто не поменял объект в кэше
+        return Optional.of(copyGenre(genres[id]));
+    }
 
-            log.debug("Найден объект с id {}, и именем {}", userRows.getInt("GENRE_ID"), userRows.getString("NAME"));
+    @Override
+    public Collection<Genre> getGenres() {
+        Collection<Genre> genres = new ArrayList<>();
 
-            // Создаю объект жанра из запроса
-            genre = createGenre(userRows);
+        // Массив упорядочен по айди, так что и жанры получаются упорядоченными
+        for (Genre genre : genresById) {
             if (genre != null) {
-                return Optional.of(genre);
+                genres.add(copyGenre(genre));
             }
-            return Optional.empty();
         }
-        return Optional.empty();
+
+        return genres;
     }
 
     @Override
-    public Collection<Genre> getGenres() {
+    public void invalidateCache() {
 
-        // Запрос на получение всех айдишников жанров фильмов
-        String sqlQuery = "SELECT GENRE_ID " +
-                "FROM GENRES  ";
+        // Запрос на получение всех жанров
+        String sqlQuery = "SELECT GENRE_ID, NAME " +
+                "FROM GENRES " +
+                "ORDER BY GENRE_ID";
 
-        Genre genre;
-        Collection<Genre> genres = new ArrayList<>();
+        List<Genre> genres = new ArrayList<>();
+        int maxId = 0;
 
         // Выполнение запроса
-        SqlRowSet userRows = jdbcTemplate.queryForRowSet(sqlQuery);
+        SqlRowSet genreRows = jdbcTemplate.queryForRowSet(sqlQuery);
 
         // Прохожусь по всему результату запроса
-        while (userRows.next()) {
-            log.debug("Найден объект с id {} ", userRows.getInt("GENRE_ID"));
-
-            // Достаю айдишник из запроса
-            int genreId = userRows.getInt("GENRE_ID");
-            // Если по нему получается достать фильм, то я добавляю его в коллекцию фильмов
-            if (getGenreById(genreId).isPresent()) {
-                genre = getGenreById(genreId).get();
-                genres.add(genre);
-            }
+        while (genreRows.next()) {
+            Genre genre = createGenre(genreRows);
+            genres.add(genre);
+            maxId = Math.max(maxId, genre.getId());
         }
 
-        return genres;
+        Genre[] newGenresById = new Genre[maxId + 1];
+        for (Genre genre : genres) {
+            newGenresById[genre.getId()] = genre;
+        }
+        genresById = newGenresById;
+
+        log.debug("В кэш загружено {} жанров", genres.size());
     }
 
-    private Genre createGenre(SqlRowSet userRows) {
-        if (userRows.getInt("GENRE_ID") != 0) {
-            return new Genre(userRows.getInt("GENRE_ID"),
-                    userRows.getString("NAME"));
-        }
-        return null;
+    private Genre copyGenre(Genre genre) {
+        return new Genre(genre.getId(), genre.getName());
+    }
+
+    private Genre createGenre(SqlRowSet genreRows) {
+        return new Genre(genreRows.getInt("GENRE_ID"),
+                genreRows.getString("NAME"));
     }
 }
@@ -10,4 +10,7 @@ public interface MpaStorage {
     Optional<Mpa> getMpaById(int id);
 
     Collection<Mpa> getMpas();
+
+    // Перечитывает закэшированные данные из бд
+    void invalidateCache();
 }
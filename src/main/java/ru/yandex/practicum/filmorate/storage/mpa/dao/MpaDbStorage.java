@@ -10,6 +10,7 @@ import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Slf4j
@@ -18,67 +19,78 @@ public class MpaDbStorage implements MpaStorage {
 
     private final JdbcTemplate jdbcTemplate;
 
+    // Рейтинги MPA из бд, где индекс массива - айди рейтинга. Загружаются целиком при старте,
+    // как и жанры в GenreDbStorage. invalidateCache подменяет массив целиком
+    private volatile Mpa[] mpasById;
+
     @Autowired
     public MpaDbStorage(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
+        invalidateCache();
     }
 
     @Override
     public Optional<Mpa> getMpaById(int id) {
-        // Запрос на получение MPA по id
-        String sqlQuery = "SELECT MPA_ID, NAME " +
-                "FROM MPA " +
-                "WHERE MPA_ID = ?";
-
-        Mpa mpa;
-
-        // Выполнение запроса
-        SqlRowSet userRows = jdbcTemplate.queryForRowSet(sqlQuery, id);
+        Mpa[] mpas = mpasById;
 
-        // Прохожусь по 1 строке результата запроса
-        if (userRows.next()) {
+        if (id <= 0 || id >= mpas.length || mpas[id] == null) {
+            return Optional.empty();
+        }
 
-            log.debug("Найден объект с id {}, и именем {}", userRows.getInt("MPA_ID"), userRows.getString("NAME"));
+        // Отдаю копию, чтобы никто не поменял объект в кэше
+        return Optional.of(copyMpa(mpas[id]));
+    }
 
-            // Создаю объект жанра из запроса
-            mpa = createMpa(userRows);
+    @Override
+    public Collection<Mpa> getMpas() {
+        Collection<Mpa> mpas = new ArrayList<>();
 
-            return Optional.of(mpa);
+        // Массив упорядочен по айди, так что и рейтинги получаются упорядоченными
+        for (Mpa mpa : mpasById) {
+            if (mpa != null) {
+                mpas.add(copyMpa(mpa));
+            }
         }
-        return Optional.empty();
+
+        return mpas;
     }
 
     @Override
-    public Collection<Mpa> getMpas() {
+    public void invalidateCache() {
 
-        // Запрос на получение всех айдишников mpa фильмов
-        String sqlQuery = "SELECT MPA_ID " +
-                "FROM MPA  ";
+        // Запрос на получение всех рейтингов MPA
+        String sqlQuery = "SELECT MPA_ID, NAME " +
+                "FROM MPA " +
+                "ORDER BY MPA_ID";
 
-        Mpa mpa;
-        Collection<Mpa> mpas = new ArrayList<>();
+        List<Mpa> mpas = new ArrayList<>();
+        int maxId = 0;
 
         // Выполнение запроса
-        SqlRowSet userRows = jdbcTemplate.queryForRowSet(sqlQuery);
+        SqlRowSet mpaRows = jdbcTemplate.queryForRowSet(sqlQuery);
 
         // Прохожусь по всему результату запроса
-        while (userRows.next()) {
-            log.debug("Найден объект с id {} ", userRows.getInt("MPA_ID"));
-
-            // Достаю айдишник из запроса
-            int mpaId = userRows.getInt("MPA_ID");
-            // Если по нему получается достать фильм, то я добавляю его в коллекцию фильмов
-            if (getMpaById(mpaId).isPresent()) {
-                mpa = getMpaById(mpaId).get();
-                mpas.add(mpa);
-            }
+        while (mpaRows.next()) {
+            Mpa mpa = createMpa(mpaRows);
+            mpas.add(mpa);
+            maxId = Math.max(maxId, mpa.getId());
         }
 
-        return mpas;
+        Mpa[] newMpasById = new Mpa[maxId + 1];
+        for (Mpa mpa : mpas) {
+            newMpasById[mpa.getId()] = mpa;
+        }
+        mpasById = newMpasById;
+
+        log.debug("В кэш загружено {} рейтингов MPA", mpas.size());
+    }
+
+    private Mpa copyMpa(Mpa mpa) {
+        return new Mpa(mpa.getId(), mpa.getName());
     }
 
-    private Mpa createMpa(SqlRowSet userRows) {
-        return new Mpa(userRows.getInt("MPA_ID"),
-                userRows.getString("NAME"));
+    private Mpa createMpa(SqlRowSet mpaRows) {
+        return new Mpa(mpaRows.getInt("MPA_ID"),
+                mpaRows.getString("NAME"));
     }
 }
@@ -2,6 +2,7 @@ package ru.yandex.practicum.filmorate.storage.review;
 
 import ru.yandex.practicum.filmorate.model.Review;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,6 +20,8 @@ public interface ReviewStorage {
 
     List<Review> getReviewsByFilmId(Integer filmId, int count);
 
+    List<Review> getReviewsAfter(Integer filmId, int useful, int reviewId, int limit);
+
     void putLikeToReview(int reviewId, int userId);
 
     void putDislikeToReview(int reviewId, int userId);
@@ -26,4 +29,10 @@ public interface ReviewStorage {
     void deleteLikeFromReview(int reviewId, int userId);
 
     void deleteDislikeFromReview(int reviewId, int userId);
+
+    // Фильмы, к которым пользователь писал или оценивал отзывы
+    List<Integer> getUserReviewFilmIds(int userId);
+
+    // Сбрасывает закэшированные отзывы к этим фильмам, например, после удаления пользователя или фильма
+    void invalidateFilms(Collection<Integer> filmIds);
 }
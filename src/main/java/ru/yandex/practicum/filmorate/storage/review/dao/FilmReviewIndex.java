@@ -0,0 +1,230 @@
+package ru.yandex.practicum.filmorate.storage.review.dao;
+
+import ru.yandex.practicum.filmorate.model.Review;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+// Самые полезные отзывы к фильмам в памяти, чтобы страницы отзывов к фильму отдавались без запросов в бд.
+// Для каждого фильма хранится не больше topSize первых отзывов в порядке полезности, а фильмов в индексе
+// не больше maxFilms: при переполнении вытесняется фильм, к отзывам которого дольше всего не обращались.
+// Запросы в бд выполняются без блокировки, под блокировкой индекс только читается и меняется.
+// Поэтому загрузка фильма и перечитывание отзыва проверяют, не поменялся ли фильм за время запроса:
+// загрузка, которую обогнало изменение, не попадает в индекс, а перечитанный отзыв при пересечении
+// с другим изменением фильма убирает фильм из индекса, чтобы старые данные не затёрли новые
+public class FilmReviewIndex {
+
+    private final int topSize;
+
+    // Фильмы в порядке обращения, первым идёт фильм, к которому дольше всего не обращались
+    private final LinkedHashMap<Integer, FilmReviews> films;
+    // Загрузки фильмов, которые идут сейчас: айди фильма -> номер загрузки.
+    // Изменение фильма убирает его загрузку, и её результат уже не кладётся в индекс
+    private final Map<Integer, Long> loads = new HashMap<>();
+    // Счётчик изменений индекса, по нему загрузки и перечитывания узнают о параллельных изменениях
+    private long version;
+
+    public FilmReviewIndex(int topSize, int maxFilms) {
+        this.topSize = topSize;
+        this.films = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, FilmReviews> eldest) {
+                return size() > maxFilms;
+            }
+        };
+    }
+
+    // Отзывы к фильму после отзыва с полезностью useful и айди reviewId.
+    // loader загружает из бд первые отзывы фильма, если фильма ещё нет в индексе.
+    // null - в индексе нет нужного количества отзывов, и их надо взять из бд
+    public List<Review> getReviewsAfter(int filmId, int useful, int reviewId, int limit,
+                                        IntFunction<List<Review>> loader) {
+        if (topSize <= 0) {
+            return null;
+        }
+
+        long load;
+        synchronized (this) {
+            FilmReviews filmReviews = films.get(filmId);
+            if (filmReviews != null) {
+                return filmReviews.getReviewsAfter(useful, reviewId, limit);
+            }
+            load = ++version;
+            loads.put(filmId, load);
+        }
+
+        // Загружаю на 1 отзыв больше, чтобы узнать, все ли отзывы фильма поместились в индекс
+        FilmReviews loaded;
+        try {
+            loaded = new FilmReviews(loader.apply(topSize + 1), topSize);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                loads.remove(filmId, load);
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            // Фильм никто не менял за время загрузки - кладу его в индекс, иначе просто отдаю загруженное
+            if (loads.remove(filmId, load) && !films.containsKey(filmId)) {
+                loaded.changedAt = ++version;
+                films.put(filmId, loaded);
+            }
+            return loaded.getReviewsAfter(useful, reviewId, limit);
+        }
+    }
+
+    // Перечитывает отзыв через reader и обновляет его место в индексе. Возвращает то, что вернул reader
+    public Optional<Review> refresh(Supplier<Optional<Review>> reader) {
+        long started;
+        synchronized (this) {
+            started = version;
+        }
+
+        Optional<Review> review = reader.get();
+
+        review.ifPresent(r -> {
+            synchronized (this) {
+                FilmReviews filmReviews = films.get(r.getFilmId());
+                if (filmReviews != null && filmReviews.changedAt > started) {
+                    // Фильм поменялся, пока отзыв перечитывался, и неизвестно, какие данные новее
+                    films.remove(r.getFilmId());
+                    changed(r.getFilmId());
+                } else {
+                    put(r);
+                }
+            }
+        });
+        return review;
+    }
+
+    public synchronized void remove(Review review) {
+        changed(review.getFilmId());
+        FilmReviews filmReviews = films.get(review.getFilmId());
+        if (filmReviews == null) {
+            return;
+        }
+        filmReviews.remove(review.getReviewId());
+        filmReviews.changedAt = version;
+
+        // Про отзывы за пределами индекса ничего не известно, так что пустой индекс фильма бесполезен
+        if (filmReviews.reviews.isEmpty() && !filmReviews.complete) {
+            films.remove(review.getFilmId());
+        }
+    }
+
+    // Убирает фильмы из индекса, например после удаления фильма или автора его отзывов
+    public synchronized void evict(Collection<Integer> filmIds) {
+        for (int filmId : filmIds) {
+            films.remove(filmId);
+            changed(filmId);
+        }
+    }
+
+    // Фильм поменялся: идущая загрузка фильма уже устарела
+    private void changed(int filmId) {
+        version++;
+        loads.remove(filmId);
+    }
+
+    private void put(Review review) {
+        changed(review.getFilmId());
+        FilmReviews filmReviews = films.get(review.getFilmId());
+        if (filmReviews == null) {
+            return;
+        }
+        filmReviews.remove(review.getReviewId());
+        filmReviews.changedAt = version;
+
+        // Если в индексе не все отзывы фильма, отзыв ниже последнего мог бы оказаться после отзывов,
+        // которых в индексе нет. Такой отзыв не добавляется, и индекс остаётся началом списка отзывов
+        ReviewKey key = new ReviewKey(review.getUseful(), review.getReviewId());
+        if (filmReviews.complete
+                || (!filmReviews.reviews.isEmpty() && key.compareTo(filmReviews.reviews.lastKey()) < 0)) {
+            filmReviews.add(copyReview(review));
+        }
+
+        if (filmReviews.reviews.size() > topSize) {
+            filmReviews.remove(filmReviews.reviews.lastKey().reviewId);
+            filmReviews.complete = false;
+        }
+        if (filmReviews.reviews.isEmpty() && !filmReviews.complete) {
+            films.remove(review.getFilmId());
+        }
+    }
+
+    // Отдаю копии, чтобы никто не поменял объекты в индексе
+    private static Review copyReview(Review review) {
+        return Review.builder()
+                .reviewId(review.getReviewId())
+                .content(review.getContent())
+                .isPositive(review.getIsPositive())
+                .filmId(review.getFilmId())
+                .userId(review.getUserId())
+                .useful(review.getUseful())
+                .build();
+    }
+
+    // Первые отзывы одного фильма
+    private static class FilmReviews {
+        private final TreeMap<ReviewKey, Review> reviews = new TreeMap<>();
+        private final Map<Integer, ReviewKey> keys = new HashMap<>();
+        // true - в индексе все отзывы фильма
+        private boolean complete;
+        // Значение счётчика изменений индекса при последнем изменении фильма
+        private long changedAt;
+
+        private FilmReviews(List<Review> loaded, int topSize) {
+            complete = loaded.size() <= topSize;
+            for (Review review : loaded.subList(0, Math.min(loaded.size(), topSize))) {
+                add(review);
+            }
+        }
+
+        private List<Review> getReviewsAfter(int useful, int reviewId, int limit) {
+            List<Review> page = new ArrayList<>();
+            for (Review review : reviews.tailMap(new ReviewKey(useful, reviewId), false).values()) {
+                if (page.size() == limit) {
+                    break;
+                }
+                page.add(copyReview(review));
+            }
+
+            if (page.size() < limit && !complete) {
+                return null;
+            }
+            return page;
+        }
+
+        private void add(Review review) {
+            ReviewKey key = new ReviewKey(review.getUseful(), review.getReviewId());
+            reviews.put(key, review);
+            keys.put(review.getReviewId(), key);
+        }
+
+        private void remove(int reviewId) {
+            ReviewKey key = keys.remove(reviewId);
+            if (key != null) {
+                reviews.remove(key);
+            }
+        }
+    }
+
+    // Порядок отзывов: по убыванию полезности, а при равной полезности по айди
+    private static class ReviewKey implements Comparable<ReviewKey> {
+        private final int useful;
+        private final int reviewId;
+
+        private ReviewKey(int useful, int reviewId) {
+            this.useful = useful;
+            this.reviewId = reviewId;
+        }
+
+        @Override
+        public int compareTo(ReviewKey other) {
+            int result = Integer.compare(other.useful, useful);
+            return result != 0 ? result : Integer.compare(reviewId, other.reviewId);
+        }
+    }
+}
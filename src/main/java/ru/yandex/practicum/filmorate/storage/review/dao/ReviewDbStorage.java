@@ -2,11 +2,14 @@ package ru.yandex.practicum.filmorate.storage.review.dao;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.exception.Review.ReviewNotFoundException;
 import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
 import ru.yandex.practicum.filmorate.model.Review;
@@ -22,14 +25,20 @@ public class ReviewDbStorage implements ReviewStorage {
 
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert simpleJdbcInsertForReviews;
-
+    private final TransactionTemplate transactionTemplate;
+    private final FilmReviewIndex reviewIndex;
 
     @Autowired
-    public ReviewDbStorage(JdbcTemplate jdbcTemplate) {
+    public ReviewDbStorage(JdbcTemplate jdbcTemplate,
+                           @Value("${filmorate.reviews.index-top-size:100}") int indexTopSize,
+                           @Value("${filmorate.reviews.index-max-films:1000}") int indexMaxFilms) {
         this.jdbcTemplate = jdbcTemplate;
+        this.reviewIndex = new FilmReviewIndex(indexTopSize, indexMaxFilms);
         simpleJdbcInsertForReviews = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("reviews")
                 .usingGeneratedKeyColumns("review_id");
+        transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(Objects.requireNonNull(jdbcTemplate.getDataSource())));
     }
 
     @Override
@@ -40,13 +49,16 @@ public class ReviewDbStorage implements ReviewStorage {
         values.put("is_positive", review.getIsPositive());
         values.put("film_id", review.getFilmId());
         values.put("user_id", review.getUserId());
-        values.put("useful", review.getUseful());
+        // У нового отзыва ещё нет оценок
+        values.put("useful", 0);
 
         log.debug("Creating review {}", review);
 
         int reviewId = simpleJdbcInsertForReviews.executeAndReturnKey(values).intValue();
 
         review.setReviewId(reviewId);
+        review.setUseful(0);
+        reviewIndex.refresh(() -> getReviewById(reviewId));
         return Optional.of(review);
     }
 
@@ -54,21 +66,27 @@ public class ReviewDbStorage implements ReviewStorage {
     public Optional<Review> updateReview(Review review) {
         int reviewId = review.getReviewId();
 
-        String sql = "UPDATE reviews SET content = ?, is_positive = ? WHERE review_id = ?"; //userId & filmId final поля, не меняем
+        // Обновление и чтение обновлённого отзыва за один запрос. userId & filmId final поля, не меняем
+        String sql = "SELECT * FROM FINAL TABLE (" +
+                "UPDATE reviews SET content = ?, is_positive = ? WHERE review_id = ?" +
+                ")";
         log.debug("Updating review {}", review);
 
-        if (jdbcTemplate.update(sql, review.getContent(), review.getIsPositive(), reviewId) == 0) {
+        Optional<Review> updatedReview = reviewIndex.refresh(() -> jdbcTemplate.query(sql, this::reviewFromSql,
+                review.getContent(), review.getIsPositive(), reviewId).stream().findFirst());
+        if (updatedReview.isEmpty()) {
             log.debug("Review with id {} is not found", reviewId);
-            return Optional.empty();
         }
-        checkRowsUpdated(jdbcTemplate.update(sql, review.getContent(), review.getIsPositive(), reviewId));
-        return getReviewById(reviewId);
+        return updatedReview;
     }
 
     @Override
     public void deleteReview(int reviewId) {
         String sql = "DELETE FROM reviews WHERE review_id = ?";
+        // Фильм отзыва нужен, чтобы убрать отзыв из индекса
+        Optional<Review> review = getReviewById(reviewId);
         checkRowsUpdated(jdbcTemplate.update(sql, reviewId));
+        review.ifPresent(reviewIndex::remove);
     }
 
     @Override
@@ -86,72 +104,121 @@ public class ReviewDbStorage implements ReviewStorage {
 
     @Override
     public List<Review> getReviewsByFilmId(Integer filmId, int count) {
-        String sql = "SELECT * FROM reviews WHERE film_id = ? LIMIT ?";
+        String sql = "SELECT * FROM reviews WHERE film_id = ? ORDER BY useful DESC, review_id LIMIT ?";
 
         log.debug("Getting reviews to film with id {}", filmId);
         return new ArrayList<>(jdbcTemplate.query(sql, this::reviewFromSql, filmId, count));
     }
 
     public List<Review> getAllReviews(int count) {
-        String sql = "SELECT * FROM reviews LIMIT ?";
+        String sql = "SELECT * FROM reviews ORDER BY useful DESC, review_id LIMIT ?";
         return new ArrayList<>(jdbcTemplate.query(sql, this::reviewFromSql, count));
     }
 
     @Override
-    public void putLikeToReview(int reviewId, int userId) {
-        String sql = "INSERT INTO review_rating (review_id, user_id, points) VALUES (?, ?, ?)";
-
-        try {
-            checkRowsUpdated(jdbcTemplate.update(sql, reviewId, userId, 1));
-        } catch (DataIntegrityViolationException e) {
-            log.debug("User with id {} is not found");
-            throw new UserNotFoundException("User with id " + userId + " is not found");
+    public List<Review> getReviewsAfter(Integer filmId, int useful, int reviewId, int limit) {
+        if (filmId != null) {
+            List<Review> reviews = reviewIndex.getReviewsAfter(filmId, useful, reviewId, limit,
+                    topSize -> selectReviewsAfter(filmId, Integer.MAX_VALUE, 0, topSize));
+            if (reviews != null) {
+                return reviews;
+            }
         }
+        return selectReviewsAfter(filmId, useful, reviewId, limit);
     }
 
     @Override
-    public void putDislikeToReview(int reviewId, int userId) {
-        String sql = "INSERT INTO review_rating (review_id, user_id, points) VALUES (?, ?, ?)";
+    public List<Integer> getUserReviewFilmIds(int userId) {
+        String sql = "SELECT FILM_ID FROM REVIEWS WHERE USER_ID = ? " +
+                "UNION " +
+                "SELECT R.FILM_ID FROM REVIEW_RATING AS RR " +
+                "JOIN REVIEWS AS R ON R.REVIEW_ID = RR.REVIEW_ID " +
+                "WHERE RR.USER_ID = ?";
+        return jdbcTemplate.queryForList(sql, Integer.class, userId, userId);
+    }
 
-        try {
-            checkRowsUpdated(jdbcTemplate.update(sql, reviewId, userId, -1));
-        } catch (DataIntegrityViolationException e) {
-            log.debug("User with id {} is not found");
-            throw new UserNotFoundException("User with id " + userId + " is not found");
+    @Override
+    public void invalidateFilms(Collection<Integer> filmIds) {
+        reviewIndex.evict(filmIds);
+    }
+
+    private List<Review> selectReviewsAfter(Integer filmId, int useful, int reviewId, int limit) {
+
+        // Отзывы отсортированы по полезности, а при равной полезности по айди.
+        // Страница начинается после отзыва с полезностью useful и айди reviewId.
+        // Условие useful <= ? задаёт начало диапазона в индексе, а второе условие отсекает отзывы
+        // с той же полезностью, которые уже были на прошлых страницах
+        String sql = "SELECT * FROM REVIEWS " +
+                "WHERE " + (filmId == null ? "" : "FILM_ID = ? AND ") +
+                "USEFUL <= ? AND (USEFUL < ? OR REVIEW_ID > ?) " +
+                "ORDER BY USEFUL DESC, REVIEW_ID " +
+                "LIMIT ?";
+
+        List<Object> args = new ArrayList<>();
+        if (filmId != null) {
+            args.add(filmId);
         }
+        args.addAll(List.of(useful, useful, reviewId, limit));
+
+        log.debug("Getting reviews to film with id {} after review with id {}", filmId, reviewId);
+        return jdbcTemplate.query(sql, this::reviewFromSql, args.toArray());
+    }
+
+    @Override
+    public void putLikeToReview(int reviewId, int userId) {
+        putRating(reviewId, userId, 1);
+    }
+
+    @Override
+    public void putDislikeToReview(int reviewId, int userId) {
+        putRating(reviewId, userId, -1);
     }
 
     @Override
     public void deleteLikeFromReview(int reviewId, int userId) {
-        String sql = "DELETE FROM review_rating WHERE review_id = ? AND user_id = ? AND points = ?";
+        deleteRating(reviewId, userId, 1);
+    }
+
+    @Override
+    public void deleteDislikeFromReview(int reviewId, int userId) {
+        deleteRating(reviewId, userId, -1);
+    }
+
+    // Оценка и полезность отзыва меняются в одной транзакции, поэтому USEFUL всегда равно сумме оценок
+    private void putRating(int reviewId, int userId, int points) {
+        String sql = "INSERT INTO review_rating (review_id, user_id, points) VALUES (?, ?, ?)";
 
         try {
-            checkRowsUpdated(jdbcTemplate.update(sql, reviewId, userId, 1));
+            transactionTemplate.executeWithoutResult(status -> {
+                checkRowsUpdated(jdbcTemplate.update(sql, reviewId, userId, points));
+                addUseful(reviewId, points);
+            });
+            reviewIndex.refresh(() -> getReviewById(reviewId));
         } catch (DataIntegrityViolationException e) {
-            log.debug("User with id {} is not found");
+            log.debug("User with id {} is not found", userId);
             throw new UserNotFoundException("User with id " + userId + " is not found");
         }
     }
 
-    @Override
-    public void deleteDislikeFromReview(int reviewId, int userId) {
+    private void deleteRating(int reviewId, int userId, int points) {
         String sql = "DELETE FROM review_rating WHERE review_id = ? AND user_id = ? AND points = ?";
 
         try {
-            checkRowsUpdated(jdbcTemplate.update(sql, reviewId, userId, -1));
+            transactionTemplate.executeWithoutResult(status -> {
+                int deletedRows = jdbcTemplate.update(sql, reviewId, userId, points);
+                checkRowsUpdated(deletedRows);
+                addUseful(reviewId, -points * deletedRows);
+            });
+            reviewIndex.refresh(() -> getReviewById(reviewId));
         } catch (DataIntegrityViolationException e) {
-            log.debug("User with id {} is not found");
+            log.debug("User with id {} is not found", userId);
             throw new UserNotFoundException("User with id " + userId + " is not found");
         }
     }
 
-    private Integer calculateUseful(int reviewId) {
-        String sql = "SELECT SUM(points) FROM review_rating WHERE review_id = ?";
-        Integer pointsCount = jdbcTemplate.queryForObject(sql, Integer.class, reviewId);
-        if (pointsCount == null) {
-            return 0;
-        }
-        return pointsCount;
+    private void addUseful(int reviewId, int delta) {
+        String sql = "UPDATE reviews SET useful = useful + ? WHERE review_id = ?";
+        jdbcTemplate.update(sql, delta, reviewId);
     }
 
     private void checkRowsUpdated(int result) {
@@ -162,14 +229,13 @@ public class ReviewDbStorage implements ReviewStorage {
     }
 
     private Review reviewFromSql(ResultSet rs, int rowNum) throws SQLException {
-        int reviewId = rs.getInt("review_id");
         return Review.builder()
-                .reviewId(reviewId)
+                .reviewId(rs.getInt("review_id"))
                 .content(rs.getString("content"))
                 .isPositive(rs.getBoolean("is_positive"))
                 .filmId(rs.getInt("film_id"))
                 .userId(rs.getInt("user_id"))
-                .useful(calculateUseful(reviewId))
+                .useful(rs.getInt("useful"))
                 .build();
     }
 }
@@ -1,11 +1,12 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
-import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
@@ -13,19 +14,29 @@ public interface UserStorage {
 
     Optional<User> putUser(User user);
 
-    Collection<User> getUsers();
+    void streamUsers(View view, Consumer<User> consumer);
+
+    List<User> getUsersAfter(int userId, int limit, View view);
 
     Optional<User> getUserById(int userId);
 
+    // Проверка, что пользователь есть, без загрузки его лайков и друзей
+    boolean existsUser(int userId);
+
     Optional<User> putUserFriend(int userId, int friendId);
 
     Optional<User> deleteUserFriend(int userId, int friendId);
 
     Collection<User> getFriends(int userId);
 
+    Collection<User> getFriends(int userId, View view);
+
     Collection<User> getCommonFriends(int userId, int otherId);
 
-    HashMap<Integer, HashMap<Integer, Film>> getRecommendationFilms(int id);
+    List<Integer> getRecommendedFilmIds(int userId);
+
+    // Айди фильмов, которые лайкнул пользователь
+    List<Integer> getLikedFilmIds(int userId);
 
     Optional<Integer> deleteUser(int userId);
 }
@@ -7,19 +7,37 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component()
 public class UserDbStorage implements UserStorage {
 
+    // Начало запроса на получение пользователей. Условие и сортировка дописываются в конец
+    private static final String SELECT_USERS = "SELECT U.USER_ID, U.EMAIL, U.LOGIN, U.NAME, U.BIRTHDAY " +
+            "FROM USERS AS U ";
+
+    // Друзья пользователя в порядке айди
+    private static final String SELECT_FRIENDS = SELECT_USERS +
+            "JOIN FRIEND_REQUEST AS F on F.FRIEND_ID = U.USER_ID " +
+            "WHERE F.USER_ID = ? " +
+            "ORDER BY U.USER_ID";
+
+    // Количество пользователей в одной пачке при потоковой выдаче
+    private static final int USERS_BATCH_SIZE = 500;
+
     private final JdbcTemplate jdbcTemplate;
     private final SimpleJdbcInsert simpleJdbcInsertForUsers;
     private final SimpleJdbcInsert simpleJdbcInsertForFriendRequests;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
     public UserDbStorage(JdbcTemplate jdbcTemplate) {
@@ -30,6 +48,10 @@ public class UserDbStorage implements UserStorage {
         this.simpleJdbcInsertForFriendRequests = new SimpleJdbcInsert(jdbcTemplate)
                 .withTableName("FRIEND_REQUEST")
                 .usingGeneratedKeyColumns("FRIEND_REQUEST_ID");
+        // Менеджер транзакций поверх того же DataSource, что и jdbcTemplate.
+        // Нужен, чтобы изменение лайков пользователя и счётчиков FILMS.LIKE_COUNT выполнялось атомарно
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(Objects.requireNonNull(jdbcTemplate.getDataSource())));
     }
 
     @Override
@@ -57,6 +79,11 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Optional<User> putUser(User user) {
+        // Пользователь, его лайки и счётчики лайков фильмов меняются в одной транзакции
+        return transactionTemplate.execute(status -> updateUser(user));
+    }
+
+    private Optional<User> updateUser(User user) {
 
         // Нахожу айди юзера. При изменении, он не меняется
         int userId = user.getId();
@@ -104,11 +131,18 @@ public class UserDbStorage implements UserStorage {
             // Если есть разница, то я удаляю все лайки от данного пользователя
             jdbcTemplate.update(sqlQueryDropForLikes, userId);
 
-            // А потом добавляю новые лайки от данного пользователя
-            for (Like like : user.getLikes()) {
-                likes.add(new Object[]{like.getFilmId(), userId});
-            }
+            // А потом добавляю новые лайки от данного пользователя. Один фильм можно лайкнуть только раз
+            user.getLikes().stream()
+                    .map(Like::getFilmId)
+                    .distinct()
+                    .forEach(filmId -> likes.add(new Object[]{filmId, userId}));
             jdbcTemplate.batchUpdate(sqlQueryInsertForLikes, likes);
+
+            // Счётчики лайков нужно пересчитать и у старых, и у новых фильмов пользователя
+            Set<Integer> changedFilmIds = new HashSet<>();
+            userInDb.getLikes().forEach(like -> changedFilmIds.add(like.getFilmId()));
+            user.getLikes().forEach(like -> changedFilmIds.add(like.getFilmId()));
+            recountFilmLikes(changedFilmIds);
         }
 
         // Проверяю, есть ли разница в друзьях юзера из бд и друзьях юзера, которого передали нам для замены
@@ -137,139 +171,59 @@ public class UserDbStorage implements UserStorage {
     }
 
     @Override
-    public Collection<User> getUsers() {
-
-        // Запрос на получение всех айдишников пользователей
-        String sqlQueryForUsers = "SELECT U.USER_ID, U.EMAIL, U.LOGIN, U.NAME, U.BIRTHDAY, L.LIKE_ID, L.FILM_ID, FR.FRIEND_REQUEST_ID, FR.FRIEND_ID " +
-                "FROM USERS AS U " +
-                "LEFT JOIN LIKES AS L on U.USER_ID = L.USER_ID " +
-                "LEFT JOIN FRIEND_REQUEST AS FR on U.USER_ID = FR.USER_ID ";
-
-        User user;
-        FriendShip friendShip;
-        Like like;
-        // Мапа айди пользователя, сам пользователь
-        HashMap<Integer, User> users = new HashMap<>();
-
-        // Выполнение запроса
-        SqlRowSet rowsFromDb = jdbcTemplate.queryForRowSet(sqlQueryForUsers);
-
-        // Прохожусь по всем строкам
-        while (rowsFromDb.next()) {
-
-            // Если ключ содержится в мапе пользователей
-            if (users.containsKey(rowsFromDb.getInt("USER_ID"))) {
-
-                //Достаю пользователя из мапы
-                user = users.get(rowsFromDb.getInt("USER_ID"));
-
-                // Отдельно создаю объекты для Like и FriendShip
-                like = createLike(rowsFromDb);
-                friendShip = createFriendRequest(rowsFromDb);
-
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму от пользователя
-                if (like != null) {
-                    user.getLikes().add(like);
-                }
-
-                // Если дружба нашлась и создалась нормально, то я добавляю её пользователю
-                if (friendShip != null) {
-                    user.getFriendShips().add(friendShip);
-                }
-
-            } else {
-
-                // Создаю объект пользователя из запроса
-                user = createUser(rowsFromDb);
-
-                // Отдельно создаю объекты для Like и FriendShip
-                like = createLike(rowsFromDb);
-                friendShip = createFriendRequest(rowsFromDb);
-
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму от пользователя
-                if (like != null) {
-                    user.getLikes().add(like);
-                }
-
-                // Если дружба нашлась и создалась нормально, то я добавляю её пользователю
-                if (friendShip != null) {
-                    user.getFriendShips().add(friendShip);
-                }
-                users.put(user.getId(), user);
-
-
+    public void streamUsers(View view, Consumer<User> consumer) {
+
+        // Пользователи читаются пачками по ключу USER_ID, так что в памяти находится только одна пачка,
+        // а соединение с бд не занято, пока пачка пишется в ответ
+        int lastUserId = 0;
+        List<User> batch;
+        do {
+            batch = getUsersAfter(lastUserId, USERS_BATCH_SIZE, view);
+            batch.forEach(consumer);
+            if (!batch.isEmpty()) {
+                lastUserId = batch.get(batch.size() - 1).getId();
             }
-        }
-        return users.values().stream().sorted(Comparator.comparingInt(User::getId)).collect(Collectors.toList());
+        } while (batch.size() == USERS_BATCH_SIZE);
+    }
+
+    @Override
+    public List<User> getUsersAfter(int userId, int limit, View view) {
+
+        // Запрос на получение следующих limit пользователей после пользователя с айди userId
+        String sqlQuery = SELECT_USERS +
+                "WHERE U.USER_ID > ? " +
+                "ORDER BY U.USER_ID " +
+                "LIMIT ?";
+        return queryUsers(view, sqlQuery, userId, limit);
     }
 
     @Override
     public Optional<User> getUserById(int id) {
 
-        // Запрос на получение пользователя по id
-        String sqlQueryForOneUser = "SELECT U.USER_ID, U.EMAIL, U.LOGIN, U.NAME, U.BIRTHDAY, L.LIKE_ID, L.FILM_ID, FR.FRIEND_REQUEST_ID, FR.FRIEND_ID " +
-                "FROM USERS AS U " +
-                "LEFT JOIN LIKES AS L on U.USER_ID = L.USER_ID " +
-                "LEFT JOIN FRIEND_REQUEST AS FR on U.USER_ID = FR.USER_ID " +
+        // Запрос на получение пользователя по id. Связи пользователя достаются отдельными запросами
+        String sqlQueryForOneUser = SELECT_USERS +
                 "WHERE U.USER_ID = ?";
 
-        User user;
-        FriendShip friendShip;
-        Like like;
-
-        // Выполнение запроса
         SqlRowSet rowsForOneUser = jdbcTemplate.queryForRowSet(sqlQueryForOneUser, id);
 
-        // Прохожусь по первой строке результата запроса
-        if (rowsForOneUser.next()) {
-
-            log.debug("Найден объект с id {}, и логином {}", rowsForOneUser.getInt("USER_ID"), rowsForOneUser.getString("LOGIN"));
-
-            // Создаю объект пользователя из запроса
-            user = createUser(rowsForOneUser);
-
-            // Отдельно создаю объекты для Like и FriendShip
-            like = createLike(rowsForOneUser);
-            friendShip = createFriendRequest(rowsForOneUser);
-
-            // Если лайк нашёлся и создался нормально, то я добавляю его фильму от пользователя
-            if (like != null) {
-                user.getLikes().add(like);
-            }
-
-            // Если дружба нашлась и создалась нормально, то я добавляю её пользователю
-            if (friendShip != null) {
-                user.getFriendShips().add(friendShip);
-            }
-
-            // Если больше строк нет, то возвращаю то, что есть
-            if (rowsForOneUser.isLast()) {
-                return Optional.of(user);
-            }
-
-            log.debug("В таблице больше 1 строки, так что начинаю заполнять объект user дополнительной информацией");
+        if (!rowsForOneUser.next()) {
+            return Optional.empty();
+        }
 
-            // Если больше 1 строки, то они отличаются только по Like или FriendShip, так что меняю их
-            while (rowsForOneUser.next()) {
+        log.debug("Найден объект с id {}, и логином {}", rowsForOneUser.getInt("USER_ID"), rowsForOneUser.getString("LOGIN"));
 
-                // Отдельно создаю объекты для Like и FriendShip
-                like = createLike(rowsForOneUser);
-                friendShip = createFriendRequest(rowsForOneUser);
+        User user = createUser(rowsForOneUser);
 
-                // Если лайк нашёлся и создался нормально, то я добавляю его фильму от пользователя
-                if (like != null) {
-                    user.getLikes().add(like);
-                }
+        // Достаю лайки и друзей только этого пользователя
+        fillUsersRelations(Map.of(user.getId(), user), "WHERE USER_ID = ?", id);
 
-                // Если дружба нашлась и создалась нормально, то я добавляю её пользователю
-                if (friendShip != null) {
-                    user.getFriendShips().add(friendShip);
-                }
+        return Optional.of(user);
+    }
 
-            }
-            return Optional.of(user);
-        }
-        return Optional.empty();
+    @Override
+    public boolean existsUser(int userId) {
+        String sqlQuery = "SELECT EXISTS(SELECT 1 FROM USERS WHERE USER_ID = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sqlQuery, Boolean.class, userId));
     }
 
     @Override
@@ -311,144 +265,155 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Collection<User> getFriends(int userId) {
-        // Запрос на получение айдишников всех друзей
-        String sqlQueryForFriendsId = "SELECT FRIEND_ID " +
-                "FROM FRIEND_REQUEST " +
-                "WHERE USER_ID = ? ";
-        int id;
-        Collection<User> friends = new ArrayList<>();
-
-        // Выполнение запроса
-        SqlRowSet sqlRowSetForFriendsId = jdbcTemplate.queryForRowSet(sqlQueryForFriendsId, userId);
-
-        // прохожусь по всему результату запроса и, добавляю друзей в список, но если я не нашёл его, то не добавляю, а пропускаю эту итерацию
-        while (sqlRowSetForFriendsId.next()) {
-            id = sqlRowSetForFriendsId.getInt("FRIEND_ID");
-            if (getUserById(id).isEmpty()) {
-                continue;
-            }
-            friends.add(getUserById(id).get());
-        }
-
-        return friends;
-
+        return getFriends(userId, View.FULL);
     }
 
     @Override
-    public Collection<User> getCommonFriends(int userId, int otherId) {
-        Collection<User> myFriends = new HashSet<>(getFriends(userId));
-        Collection<User> otherFriends = new HashSet<>(getFriends(otherId));
-
-        // retainAll удаляет все неодинаковые элементы
-        myFriends.retainAll(otherFriends);
-
-        return myFriends;
+    public Collection<User> getFriends(int userId, View view) {
+        // Друзья достаются одним запросом, а их лайки и друзья - пачками по USERS_BATCH_SIZE,
+        // так что количество запросов не зависит от количества друзей
+        return queryUsers(view, SELECT_FRIENDS, userId);
     }
 
     @Override
-    public HashMap<Integer, HashMap<Integer, Film>> getRecommendationFilms(int userId) {
-        // Запрос на получение всех фильмов
-        String sqlQueryForGettingFilms = "SELECT F.FILM_ID, F.NAME, F.RELEASE_DATE, F.DURATION, F.DESCRIPTION, M.MPA_ID, M.NAME AS MNAME, LIKE_ID, L.USER_ID, G.GENRE_ID, G.NAME AS GNAME " +
-                "FROM LIKES AS L " +
-                "LEFT JOIN FILMS AS F on L.FILM_ID = F.FILM_ID " +
-                "LEFT JOIN MPA AS M on F.MPA_ID = M.MPA_ID " +
-                "LEFT JOIN FILM_GENRE_CONNECTION AS FGC on F.FILM_ID = FGC.FILM_ID " +
-                "LEFT JOIN GENRES AS G on FGC.GENRE_ID = G.GENRE_ID ";
+    public Collection<User> getCommonFriends(int userId, int otherId) {
 
-        Film film;
-        Genre genre;
+        // Пересечение друзей считается в бд одним запросом: для каждого друга userId проверяется
+        // пара (otherId, FRIEND_ID) по индексу FRIEND_REQUEST. Лайки и друзья найденных пользователей не загружаются,
+        // поэтому время запроса не зависит от их количества
+        String sqlQuery = SELECT_USERS +
+                "JOIN FRIEND_REQUEST AS F1 on F1.FRIEND_ID = U.USER_ID " +
+                "JOIN FRIEND_REQUEST AS F2 on F2.FRIEND_ID = F1.FRIEND_ID " +
+                "WHERE F1.USER_ID = ? AND F2.USER_ID = ? " +
+                "ORDER BY U.USER_ID";
 
-        // Мапа айди пользователя, мапа лайкнутых фильмов, где ключ - айди фильма, а значение - фильм
-        HashMap<Integer, HashMap<Integer, Film>> usersAndFilms = new HashMap<>();
+        Collection<User> commonFriends = new LinkedHashSet<>();
 
-        // Выполнение запроса
-        SqlRowSet filmsFromDb = jdbcTemplate.queryForRowSet(sqlQueryForGettingFilms);
+        SqlRowSet rowsFromDb = jdbcTemplate.queryForRowSet(sqlQuery, userId, otherId);
+        while (rowsFromDb.next()) {
+            commonFriends.add(createUser(rowsFromDb));
+        }
 
-        // Прохожусь по всем строкам
-        while (filmsFromDb.next()) {
+        return commonFriends;
+    }
 
-            // Если ключ содержится в мапе фильмов
-            if (usersAndFilms.containsKey(filmsFromDb.getInt("USER_ID")) && usersAndFilms.get(filmsFromDb.getInt("USER_ID")).containsKey(filmsFromDb.getInt("FILM_ID"))) {
+    @Override
+    public List<Integer> getLikedFilmIds(int userId) {
+        return jdbcTemplate.queryForList("SELECT FILM_ID FROM LIKES WHERE USER_ID = ?", Integer.class, userId);
+    }
 
-                //Достаю фильм из мапы
-                film = usersAndFilms.get(filmsFromDb.getInt("USER_ID")).get(filmsFromDb.getInt("FILM_ID"));
+    @Override
+    public List<Integer> getRecommendedFilmIds(int userId) {
+
+        // Пользователи, у которых есть общие лайки с userId, и количество общих лайков.
+        // Поиск идёт по индексам LIKES: сначала фильмы пользователя (USER_ID, FILM_ID),
+        // потом для каждого фильма все, кто его лайкнул (FILM_ID, USER_ID). Поэтому время запроса зависит
+        // от лайков пользователя и их популярности, а не от размера всей таблицы.
+        // Пользователи, которые не лайкали ничего, кроме общих фильмов, рекомендовать ничего не могут и отбрасываются
+        String sqlQueryForOverlaps = "SELECT O.USER_ID, O.OVERLAP " +
+                "FROM (SELECT L2.USER_ID, COUNT(*) AS OVERLAP " +
+                "FROM LIKES AS L1 " +
+                "JOIN LIKES AS L2 on L2.FILM_ID = L1.FILM_ID " +
+                "WHERE L1.USER_ID = ? AND L2.USER_ID <> ? " +
+                "GROUP BY L2.USER_ID) AS O " +
+                "WHERE O.OVERLAP < (SELECT COUNT(*) FROM LIKES AS L WHERE L.USER_ID = O.USER_ID) " +
+                "ORDER BY O.OVERLAP DESC";
+
+        // Оставляю только пользователей с максимальным количеством общих лайков
+        List<Integer> similarUserIds = new ArrayList<>();
+        int maxOverlap = 0;
+        SqlRowSet overlapRows = jdbcTemplate.queryForRowSet(sqlQueryForOverlaps, userId, userId);
+        while (overlapRows.next()) {
+            int overlap = overlapRows.getInt("OVERLAP");
+            if (overlap < maxOverlap) {
+                break;
+            }
+            maxOverlap = overlap;
+            similarUserIds.add(overlapRows.getInt("USER_ID"));
+        }
 
-                // Отдельно создаю объект для Genre и добавляю его в объект фильма
-                genre = createGenre(filmsFromDb);
+        if (similarUserIds.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-                // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-                if (genre != null) {
-                    film.getGenres().add(genre);
-                }
+        // Фильмы похожих пользователей, которые userId ещё не лайкал
+        String sqlQueryForFilms = "SELECT DISTINCT FILM_ID " +
+                "FROM LIKES " +
+                "WHERE USER_ID IN (" + placeholders(similarUserIds.size()) + ") " +
+                "AND FILM_ID NOT IN (SELECT FILM_ID FROM LIKES WHERE USER_ID = ?) " +
+                "ORDER BY FILM_ID";
 
-                // Если ключа нет в мапе
-            } else {
+        List<Object> args = new ArrayList<>(similarUserIds);
+        args.add(userId);
+        return jdbcTemplate.queryForList(sqlQueryForFilms, Integer.class, args.toArray());
+    }
 
-                // Создаю объект фильма из запроса
-                film = createFilm(filmsFromDb);
+    // Выполняет запрос, который начинается с SELECT_USERS, и загружает лайки и друзей найденных пользователей.
+    // В виде SUMMARY связи не нужны, и выполняется только сам запрос
+    private List<User> queryUsers(View view, String sqlQuery, Object... args) {
 
-                // Отдельно создаю объект для Genre
-                genre = createGenre(filmsFromDb);
+        // Мапа айди пользователя, сам пользователь. LinkedHashMap сохраняет порядок из запроса
+        LinkedHashMap<Integer, User> users = new LinkedHashMap<>();
 
-                // Если жанр нашёлся и создался нормально, то я добавляю его фильму
-                if (genre != null) {
-                    film.getGenres().add(genre);
-                }
+        SqlRowSet rowsFromDb = jdbcTemplate.queryForRowSet(sqlQuery, args);
+        while (rowsFromDb.next()) {
+            User user = createUser(rowsFromDb);
+            users.put(user.getId(), user);
+        }
 
-                // Если у мапы usersAndFilms ещё нет мапы с фильмами, то я создаю и заполняю. Если уже есть, то не создаю
-                if (usersAndFilms.get(filmsFromDb.getInt("USER_ID")) == null) {
-                    HashMap<Integer, Film> films = new HashMap<>();
-                    films.put(film.getId(), film);
-                    usersAndFilms.put(filmsFromDb.getInt("USER_ID"), films);
-                    continue;
-                }
+        if (view == View.SUMMARY) {
+            return new ArrayList<>(users.values());
+        }
 
-                usersAndFilms.get(filmsFromDb.getInt("USER_ID")).put(film.getId(), film);
+        // Связи достаются пачками, чтобы в условии IN было не больше USERS_BATCH_SIZE айди
+        List<Integer> ids = new ArrayList<>(users.keySet());
+        for (int from = 0; from < ids.size(); from += USERS_BATCH_SIZE) {
+            List<Integer> batch = ids.subList(from, Math.min(from + USERS_BATCH_SIZE, ids.size()));
+            fillUsersRelations(users, "WHERE USER_ID IN (" + placeholders(batch.size()) + ")", batch.toArray());
+        }
 
+        return new ArrayList<>(users.values());
+    }
 
-            }
+    // --- начало блока (загрузка связей пользователей) ---
+    // Лайки и друзья достаются отдельными запросами по ключу USER_ID.
+    // condition - условие на USER_ID, которое дописывается к каждому запросу (пустая строка - без условия)
+    private void fillUsersRelations(Map<Integer, User> users, String condition, Object... args) {
+        if (users.isEmpty()) {
+            return;
         }
-        // Возвращаю заполненную мапу айди пользователя, мапа лайкнутых фильмов, где ключ - айди фильма, а значение - фильм
-        return usersAndFilms;
-    }
 
-    private Film createFilm(SqlRowSet sqlRowSet) {
-        return new Film(sqlRowSet.getInt("FILM_ID"),
-                sqlRowSet.getString("NAME"),
-                sqlRowSet.getString("DESCRIPTION"),
-                new java.sql.Date(Objects.requireNonNull(sqlRowSet.getDate("RELEASE_DATE")).getTime()).toLocalDate(),
-                sqlRowSet.getInt("DURATION"),
-                createMpa(sqlRowSet));
-    }
+        // Запрос на получение лайков
+        // Лайки упорядочены по фильму, чтобы они добавлялись в конец LikeSet пользователя
+        String sqlQueryForLikes = "SELECT LIKE_ID, FILM_ID, USER_ID " +
+                "FROM LIKES " +
+                condition + " " +
+                "ORDER BY FILM_ID";
 
-    private Mpa createMpa(SqlRowSet sqlRowSet) {
-        return new Mpa(sqlRowSet.getInt("MPA_ID"),
-                sqlRowSet.getString("MNAME"));
-    }
+        // Запрос на получение друзей
+        String sqlQueryForFriends = "SELECT USER_ID, FRIEND_ID " +
+                "FROM FRIEND_REQUEST " +
+                condition;
 
-    private FriendShip createFriendRequest(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("FRIEND_REQUEST_ID") != 0) {
-            return new FriendShip(sqlRowSet.getInt("USER_ID"),
-                    sqlRowSet.getInt("FRIEND_ID"));
-        }
-        return null;
-    }
+        jdbcTemplate.query(sqlQueryForLikes, rs -> {
+            User user = users.get(rs.getInt("USER_ID"));
+            if (user != null) {
+                user.getLikes().add(new Like(rs.getInt("LIKE_ID"), rs.getInt("FILM_ID"), rs.getInt("USER_ID")));
+            }
+        }, args);
 
-    private Like createLike(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("LIKE_ID") != 0) {
-            return new Like(sqlRowSet.getInt("LIKE_ID"),
-                    sqlRowSet.getInt("FILM_ID"),
-                    sqlRowSet.getInt("USER_ID"));
-        }
-        return null;
+        jdbcTemplate.query(sqlQueryForFriends, rs -> {
+            User user = users.get(rs.getInt("USER_ID"));
+            if (user != null) {
+                user.getFriendShips().add(new FriendShip(rs.getInt("USER_ID"), rs.getInt("FRIEND_ID")));
+            }
+        }, args);
     }
+    // --- конец блока ---
 
-    private Genre createGenre(SqlRowSet sqlRowSet) {
-        if (sqlRowSet.getInt("GENRE_ID") != 0) {
-            return new Genre(sqlRowSet.getInt("GENRE_ID"),
-                    sqlRowSet.getString("GNAME"));
-        }
-        return null;
+    // Строка вида "?, ?, ?" для условия IN с заданным количеством параметров
+    private String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
     }
 
     private User createUser(SqlRowSet sqlRowSet) {
@@ -461,13 +426,54 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public Optional<Integer> deleteUser(int userId) {
+        // Удаление пользователя и пересчёт счётчиков лайков выполняются в одной транзакции
+        return transactionTemplate.execute(status -> removeUser(userId));
+    }
+
+    private Optional<Integer> removeUser(int userId) {
         final String sqlQuery = "DELETE FROM USERS WHERE USER_ID=?";
 
+        // Лайки и оценки отзывов пользователя удалятся каскадно, поэтому заранее запоминаю фильмы и отзывы,
+        // у которых изменится счётчик лайков и полезность
+        List<Integer> likedFilmIds = jdbcTemplate.queryForList("SELECT FILM_ID FROM LIKES WHERE USER_ID = ?",
+                Integer.class, userId);
+        List<Integer> ratedReviewIds = jdbcTemplate.queryForList("SELECT REVIEW_ID FROM REVIEW_RATING WHERE USER_ID = ?",
+                Integer.class, userId);
+
         int deletedRows = jdbcTemplate.update(sqlQuery, userId);
         if (deletedRows != 1) {
             return Optional.empty();
         }
+
+        recountFilmLikes(likedFilmIds);
+        recountReviewUseful(ratedReviewIds);
         return Optional.of(userId);
     }
 
+    // Пересчитывает REVIEWS.USEFUL по таблице REVIEW_RATING для переданных отзывов
+    private void recountReviewUseful(Collection<Integer> reviewIds) {
+        String sqlQuery = "UPDATE REVIEWS " +
+                "SET USEFUL = COALESCE((SELECT SUM(POINTS) FROM REVIEW_RATING WHERE REVIEW_ID = ?), 0) " +
+                "WHERE REVIEW_ID = ?";
+
+        List<Object[]> params = reviewIds.stream()
+                .distinct()
+                .map(reviewId -> new Object[]{reviewId, reviewId})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(sqlQuery, params);
+    }
+
+    // Пересчитывает FILMS.LIKE_COUNT по таблице LIKES для переданных фильмов
+    private void recountFilmLikes(Collection<Integer> filmIds) {
+        String sqlQuery = "UPDATE FILMS " +
+                "SET LIKE_COUNT = (SELECT COUNT(*) FROM LIKES WHERE FILM_ID = ?) " +
+                "WHERE FILM_ID = ?";
+
+        List<Object[]> params = filmIds.stream()
+                .distinct()
+                .map(filmId -> new Object[]{filmId, filmId})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(sqlQuery, params);
+    }
+
 }
@@ -0,0 +1,18 @@
+package ru.yandex.practicum.filmorate.utility;
+
+// Как EventService записывает события в FEED
+public enum FeedWriteMode {
+    // Каждое событие записывается отдельным запросом в потоке запроса
+    SYNC,
+    // Событие попадает в очередь, и запрос не ждёт записи. События пишутся пакетами по размеру или по времени.
+    // Неверный entityId запрос получает сразу, а ошибки самой записи, например события несуществующего
+    // пользователя, только пишутся в лог: ответ на запрос к этому времени уже отправлен
+    ASYNC,
+    // Событие попадает в очередь, и запрос ждёт, пока пакет с ним не будет записан
+    GROUP_COMMIT;
+
+    // Значение из настроек, например "group-commit"
+    public static FeedWriteMode parse(String mode) {
+        return valueOf(mode.trim().toUpperCase().replace('-', '_'));
+    }
+}
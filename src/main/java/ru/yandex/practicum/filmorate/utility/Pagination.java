@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.utility;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
+import ru.yandex.practicum.filmorate.model.CursorPage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Постраничная выдача по ключу (keyset): следующая страница начинается сразу после последней записи предыдущей,
+ * поэтому стоимость запроса не зависит от номера страницы.
+ * Курсор - это ключ последней записи страницы, закодированный в base64.
+ */
+public final class Pagination {
+
+    // Заголовок ответа с курсором следующей страницы
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final int MAX_LIMIT = 1000;
+
+    private Pagination() {
+    }
+
+    public static void checkLimit(int limit) {
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            throw new IncorrectParameterException("Limit should be between 1 and " + MAX_LIMIT);
+        }
+    }
+
+    public static String encodeCursor(long... keys) {
+        StringBuilder builder = new StringBuilder();
+        for (long key : keys) {
+            if (builder.length() > 0) {
+                builder.append(':');
+            }
+            builder.append(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static int[] decodeCursor(String cursor, int keysCount) {
+        long[] longKeys = decodeLongCursor(cursor, keysCount);
+        int[] keys = new int[keysCount];
+        for (int i = 0; i < keysCount; i++) {
+            if (longKeys[i] != (int) longKeys[i]) {
+                throw new IncorrectParameterException("Invalid cursor");
+            }
+            keys[i] = (int) longKeys[i];
+        }
+        return keys;
+    }
+
+    // Курсор с ключами типа long, например с timestamp события
+    public static long[] decodeLongCursor(String cursor, int keysCount) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != keysCount) {
+                throw new IncorrectParameterException("Invalid cursor");
+            }
+            long[] keys = new long[keysCount];
+            for (int i = 0; i < keysCount; i++) {
+                keys[i] = Long.parseLong(parts[i]);
+            }
+            return keys;
+        } catch (IllegalArgumentException exception) {
+            throw new IncorrectParameterException("Invalid cursor");
+        }
+    }
+
+    /**
+     * Собирает страницу из rows, которые были запрошены с лимитом limit + 1.
+     * Лишняя запись означает, что следующая страница есть, и в курсор попадает ключ последней записи страницы
+     */
+    public static <T> CursorPage<T> page(List<T> rows, int limit, Function<T, long[]> key) {
+        if (rows.size() <= limit) {
+            return new CursorPage<>(rows, null);
+        }
+        List<T> items = rows.subList(0, limit);
+        return new CursorPage<>(items, encodeCursor(key.apply(items.get(limit - 1))));
+    }
+
+    public static <T> ResponseEntity<List<T>> toResponse(CursorPage<T> page) {
+        return withCursorHeader(page).body(page.getItems());
+    }
+
+    // То же самое, но элементы страницы сериализуются с @JsonView вида view
+    public static <T> ResponseEntity<MappingJacksonValue> toResponse(CursorPage<T> page, View view) {
+        return withCursorHeader(page).body(view.wrap(page.getItems()));
+    }
+
+    private static ResponseEntity.BodyBuilder withCursorHeader(CursorPage<?> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, page.getNextCursor());
+        }
+        return response;
+    }
+}
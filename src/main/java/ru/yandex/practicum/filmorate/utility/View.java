@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.utility;
+
+import org.springframework.http.converter.json.MappingJacksonValue;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
+import ru.yandex.practicum.filmorate.model.Views;
+
+// Вид ответа: FULL - объект со всеми связями, SUMMARY - только собственные поля объекта
+public enum View {
+    FULL(null),
+    SUMMARY(Views.Summary.class);
+
+    // Класс для @JsonView, с которым сериализуется ответ. null - все поля
+    private final Class<?> jsonView;
+
+    View(Class<?> jsonView) {
+        this.jsonView = jsonView;
+    }
+
+    public Class<?> getJsonView() {
+        return jsonView;
+    }
+
+    // Оборачивает ответ, чтобы Jackson сериализовал его с нужным @JsonView
+    public MappingJacksonValue wrap(Object value) {
+        MappingJacksonValue wrapped = new MappingJacksonValue(value);
+        wrapped.setSerializationView(jsonView);
+        return wrapped;
+    }
+
+    public static View parse(String view) {
+        for (View value : values()) {
+            if (value.name().equalsIgnoreCase(view)) {
+                return value;
+            }
+        }
+        throw new IncorrectParameterException("Unknown view: " + view);
+    }
+}
@@ -1,5 +1,8 @@
 DROP ALL OBJECTS;
 
+-- H2 сам создаёт индекс для каждого внешнего ключа, у которого его ещё нет.
+-- Индексы ниже заданы явно под запросы из storage/*/dao: составные и покрывающие.
+
 create table IF NOT EXISTS GENRES
 (
     GENRE_ID INTEGER auto_increment,
@@ -24,6 +27,7 @@ create table IF NOT EXISTS FILMS
     DURATION     INTEGER           not null,
     DESCRIPTION  CHARACTER VARYING not null,
     MPA_ID       INTEGER           not null,
+    LIKE_COUNT   INTEGER default 0 not null,
     constraint FILM_PK
         primary key (FILM_ID),
     constraint FILM_MPA_MPA_ID_FK
@@ -31,6 +35,15 @@ create table IF NOT EXISTS FILMS
             on update cascade on delete cascade
 );
 
+create index IF NOT EXISTS FILMS_LIKE_COUNT_INDEX
+    on FILMS (LIKE_COUNT desc, FILM_ID);
+
+create index IF NOT EXISTS FILMS_RELEASE_DATE_INDEX
+    on FILMS (RELEASE_DATE);
+
+create index IF NOT EXISTS FILMS_MPA_ID_INDEX
+    on FILMS (MPA_ID);
+
 create table IF NOT EXISTS FILM_GENRE_CONNECTION
 (
     FILM_GENRE_CONNECTION_ID INTEGER auto_increment,
@@ -46,6 +59,12 @@ create table IF NOT EXISTS FILM_GENRE_CONNECTION
             on update cascade on delete cascade
 );
 
+create index IF NOT EXISTS FILM_GENRE_CONNECTION_FILM_ID_GENRE_ID_INDEX
+    on FILM_GENRE_CONNECTION (FILM_ID, GENRE_ID);
+
+create index IF NOT EXISTS FILM_GENRE_CONNECTION_GENRE_ID_FILM_ID_INDEX
+    on FILM_GENRE_CONNECTION (GENRE_ID, FILM_ID);
+
 create table IF NOT EXISTS USERS
 (
     USER_ID  INTEGER auto_increment,
@@ -64,7 +83,7 @@ create table IF NOT EXISTS REVIEWS
     IS_POSITIVE BOOLEAN not null,
     FILM_ID     INTEGER not null,
     USER_ID     INTEGER not null,
-    USEFUL      INTEGER,
+    USEFUL      INTEGER default 0 not null,
     constraint "REVIEWS_pk"
         primary key (REVIEW_ID),
     constraint "REVIEWS_FILMS_FILM_ID_fk"
@@ -75,6 +94,17 @@ create table IF NOT EXISTS REVIEWS
             on delete cascade on update cascade
 );
 
+-- Отзывы к фильму в порядке полезности. Заменяет индекс по одному FILM_ID
+create index IF NOT EXISTS REVIEWS_FILM_ID_USEFUL_INDEX
+    on REVIEWS (FILM_ID, USEFUL desc, REVIEW_ID);
+
+-- Все отзывы в порядке полезности
+create index IF NOT EXISTS REVIEWS_USEFUL_INDEX
+    on REVIEWS (USEFUL desc, REVIEW_ID);
+
+create index IF NOT EXISTS REVIEWS_USER_ID_INDEX
+    on REVIEWS (USER_ID);
+
 create table IF NOT EXISTS REVIEW_RATING
 (
     REVIEW_ID INTEGER not null,
@@ -88,6 +118,12 @@ create table IF NOT EXISTS REVIEW_RATING
             on delete cascade on update cascade
 );
 
+create index IF NOT EXISTS REVIEW_RATING_REVIEW_ID_POINTS_INDEX
+    on REVIEW_RATING (REVIEW_ID, POINTS);
+
+create index IF NOT EXISTS REVIEW_RATING_USER_ID_INDEX
+    on REVIEW_RATING (USER_ID);
+
 create table IF NOT EXISTS FRIEND_REQUEST
 (
     FRIEND_REQUEST_ID INTEGER auto_increment,
@@ -103,6 +139,12 @@ create table IF NOT EXISTS FRIEND_REQUEST
             on update cascade on delete cascade
 );
 
+create index IF NOT EXISTS FRIEND_REQUEST_USER_ID_FRIEND_ID_INDEX
+    on FRIEND_REQUEST (USER_ID, FRIEND_ID);
+
+create index IF NOT EXISTS FRIEND_REQUEST_FRIEND_ID_INDEX
+    on FRIEND_REQUEST (FRIEND_ID);
+
 create table IF NOT EXISTS LIKES
 (
     LIKE_ID INTEGER auto_increment,
@@ -110,6 +152,8 @@ create table IF NOT EXISTS LIKES
     USER_ID INTEGER not null,
     constraint PEOPLE_LIKED_PK
         primary key (LIKE_ID),
+    constraint PEOPLE_LIKED_FILM_ID_USER_ID_UNIQUE
+        unique (FILM_ID, USER_ID),
     constraint PEOPLE_LIKED_FILM_FILM_ID_FK
         foreign key (FILM_ID) references FILMS
             on update cascade on delete cascade,
@@ -118,6 +162,9 @@ create table IF NOT EXISTS LIKES
             on update cascade on delete cascade
 );
 
+create index IF NOT EXISTS PEOPLE_LIKED_USER_ID_FILM_ID_INDEX
+    on LIKES (USER_ID, FILM_ID);
+
 CREATE TABLE IF NOT EXISTS DIRECTORS
 (
     DIRECTOR_ID INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
@@ -137,6 +184,9 @@ CREATE TABLE IF NOT EXISTS FILM_DIRECTORS
             on update cascade on delete cascade
 );
 
+CREATE INDEX IF NOT EXISTS FILM_DIRECTORS_DIRECTOR_ID_FILM_ID_INDEX
+    ON FILM_DIRECTORS (DIRECTOR_ID, FILM_ID);
+
 create table if not exists FEED
 (
     EVENT_ID   INTEGER auto_increment,
@@ -147,4 +197,12 @@ create table if not exists FEED
     ENTITY_ID  INTEGER     not null,
     foreign key (USER_ID) references USERS (USER_ID) on delete cascade on update cascade,
     primary key (EVENT_ID)
-);
\ No newline at end of file
+);
+
+-- Лента пользователя по времени, от новых событий к старым. Индекс же отдаёт всю ленту пользователя
+create index if not exists FEED_USER_ID_TIMESTAMP_INDEX
+    on FEED (USER_ID, timestamp, EVENT_ID);
+
+-- Удаление старых событий по сроку хранения
+create index if not exists FEED_TIMESTAMP_INDEX
+    on FEED (timestamp);
@@ -1,11 +1,14 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.service.FilmService;
@@ -14,7 +17,9 @@ import ru.yandex.practicum.filmorate.storage.director.dao.DirectorDbStorage;
 import ru.yandex.practicum.filmorate.storage.event.dao.EventDbStorage;
 import ru.yandex.practicum.filmorate.storage.director.dao.DirectorDbStorage;
 import ru.yandex.practicum.filmorate.storage.film.dao.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.dao.FilmSearchIndex;
 import ru.yandex.practicum.filmorate.storage.user.dao.UserDbStorage;
+import ru.yandex.practicum.filmorate.utility.View;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -35,11 +40,15 @@ class FilmControllerTest {
     private final FilmService filmService;
     private final UserDbStorage userStorage;
     private final DirectorDbStorage directorStorage;
+    private final FilmSearchIndex filmSearchIndex;
+    private final JdbcTemplate jdbcTemplate;
 
     private final UserService userService;
 
     private final EventDbStorage eventDbStorage;
 
+    private final ObjectMapper objectMapper;
+
     @Test
     public void testPostFilm() {
         Mpa mpa = new Mpa(5, "NC-17");
@@ -108,7 +117,7 @@ class FilmControllerTest {
         filmStorage.postFilm(filmForPost1);
         filmStorage.postFilm(filmForPost2);
 
-        List<Film> films = (List<Film>) filmStorage.getFilms();
+        List<Film> films = filmStorage.getFilmsAfter(0, 2, View.FULL);
 
         Optional<Film> filmOptional1 = Optional.of(films.get(0));
         Optional<Film> filmOptional2 = Optional.of(films.get(1));
@@ -135,6 +144,63 @@ class FilmControllerTest {
                 .hasValueSatisfying(film -> assertThat(film).hasFieldOrPropertyWithValue("genres", genres));
     }
 
+    @Test
+    public void testStreamFilms() {
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film filmForPost1 = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        Film filmForPost2 = new Film(2, "Stas Live", "Stas B hates everyone even you.", LocalDate.of(1989, 10, 24), 120, mpa);
+        filmForPost1.getGenres().add(new Genre(6, "Боевик"));
+
+        filmStorage.postFilm(filmForPost1);
+        filmStorage.postFilm(filmForPost2);
+        userStorage.postUser(new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22)));
+        filmStorage.putLikeToFilm(2, 1);
+
+        List<Film> films = new ArrayList<>();
+        filmStorage.streamFilms(View.FULL, films::add);
+
+        assertThat(films).containsExactly(filmStorage.getFilmById(1).orElseThrow(),
+                filmStorage.getFilmById(2).orElseThrow());
+    }
+
+    @Test
+    public void testFilmSummaryJson() throws JsonProcessingException {
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film film = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        film.getGenres().add(new Genre(6, "Боевик"));
+        film.getLikes().add(new Like(1, 1, 1));
+
+        // В кратком виде фильм сериализуется без лайков
+        String json = objectMapper.writerWithView(View.SUMMARY.getJsonView()).writeValueAsString(film);
+        assertEquals("{\"id\":1,\"name\":\"Viktor B Live\",\"description\":\"Viktor B hates everyone even you.\"," +
+                "\"releaseDate\":\"2002-10-22\",\"duration\":60,\"mpa\":{\"id\":5,\"name\":\"NC-17\"}," +
+                "\"directors\":[],\"genres\":[{\"id\":6,\"name\":\"Боевик\"}]}", json);
+
+        // В полном виде ответ не меняется
+        assertThat(objectMapper.writerWithView(View.FULL.getJsonView()).writeValueAsString(film))
+                .isEqualTo(objectMapper.writeValueAsString(film))
+                .contains("\"likes\":[{\"likeId\":1,\"filmId\":1,\"userId\":1}]");
+    }
+
+    @Test
+    public void testGetFilmsPage() {
+        Mpa mpa = new Mpa(5, "NC-17");
+        for (int i = 1; i <= 3; i++) {
+            filmStorage.postFilm(new Film(i, "Film " + i, "Description", LocalDate.of(2002, 10, 22), 60, mpa));
+        }
+
+        CursorPage<Film> firstPage = filmService.getFilmsPage(null, 2);
+        CursorPage<Film> secondPage = filmService.getFilmsPage(firstPage.getNextCursor(), 2);
+
+        List<Film> films = new ArrayList<>(firstPage.getItems());
+        films.addAll(secondPage.getItems());
+
+        assertThat(firstPage.getItems()).hasSize(2);
+        assertThat(secondPage.getNextCursor()).isNull();
+        assertThat(films).containsExactly(filmStorage.getFilmById(1).orElseThrow(),
+                filmStorage.getFilmById(2).orElseThrow(), filmStorage.getFilmById(3).orElseThrow());
+    }
+
     @Test
     public void testGetFilmById() {
         Mpa mpa = new Mpa(5, "NC-17");
@@ -161,6 +227,39 @@ class FilmControllerTest {
 
     }
 
+    @Test
+    public void testLikesJsonRoundTrip() throws JsonProcessingException {
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film film = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+
+        // Лайки добавляются не по порядку, а хранятся и отдаются отсортированными по пользователю
+        film.getLikes().add(new Like(7, 1, 3));
+        film.getLikes().add(new Like(5, 1, 1));
+        film.getLikes().add(new Like(6, 1, 2));
+        film.getLikes().add(new Like(5, 1, 1));
+
+        assertEquals(3, film.getLikes().size());
+        assertThat(film.getLikes().containsKey(2)).isTrue();
+        assertThat(film.getLikes().containsKey(4)).isFalse();
+
+        String json = objectMapper.writeValueAsString(film);
+        assertThat(json).contains("\"likes\":[{\"likeId\":5,\"filmId\":1,\"userId\":1}," +
+                "{\"likeId\":6,\"filmId\":1,\"userId\":2},{\"likeId\":7,\"filmId\":1,\"userId\":3}]");
+
+        assertEquals(new HashSet<>(List.of(new Like(5, 1, 1), new Like(6, 1, 2), new Like(7, 1, 3))),
+                film.getLikes());
+
+        film.getLikes().remove(new Like(6, 1, 2));
+        assertThat(film.getLikes()).containsExactly(new Like(5, 1, 1), new Like(7, 1, 3));
+
+        // Лайк другого фильма в множество не попадает
+        assertThat(film.getLikes().contains(new Like(5, 2, 1))).isFalse();
+        Assertions.assertThrows(IllegalArgumentException.class, () -> film.getLikes().add(new Like(8, 2, 4)));
+
+        Film filmFromJson = objectMapper.readValue(json.replaceAll("\"likes\":\\[.*]", "\"likes\":[]"), Film.class);
+        assertThat(filmFromJson.getLikes()).isEmpty();
+    }
+
     @Test
     public void testPutLikeToFilm() {
         User userForPost = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
@@ -266,7 +365,7 @@ class FilmControllerTest {
 
         filmStorage.deleteFilm(filmForPost.getId());
 
-        assertEquals(filmStorage.getFilms().size(), 0);
+        assertThat(filmStorage.getFilmById(filmForPost.getId())).isEmpty();
     }
 
     @Test
@@ -373,6 +472,67 @@ class FilmControllerTest {
     }
 
 
+    @Test
+    public void testGetPopular() {
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film filmForPost1 = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        Film filmForPost2 = new Film(2, "Stas Live", "Stas B hates everyone even you.", LocalDate.of(1989, 10, 24), 120, mpa);
+        User user = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+
+        filmStorage.postFilm(filmForPost1);
+        filmStorage.postFilm(filmForPost2);
+        userStorage.postUser(user);
+        filmStorage.putLikeToFilm(filmForPost2.getId(), user.getId());
+
+        List<Film> popular = filmStorage.getPopular(2);
+
+        assertThat(popular)
+                .hasSize(2)
+                .containsExactly(filmStorage.getFilmById(filmForPost2.getId()).get(),
+                        filmStorage.getFilmById(filmForPost1.getId()).get());
+
+        assertThat(filmStorage.getPopular(1))
+                .hasSize(1)
+                .containsExactly(filmStorage.getFilmById(filmForPost2.getId()).get());
+    }
+
+    @Test
+    public void testPutLikeToFilmTwice() {
+        User userForPost = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        userStorage.postUser(userForPost);
+
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film filmForPost = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        filmStorage.postFilm(filmForPost);
+
+        filmStorage.putLikeToFilm(filmForPost.getId(), userForPost.getId());
+        Optional<Film> filmOptional = filmStorage.putLikeToFilm(filmForPost.getId(), userForPost.getId());
+
+        assertThat(filmOptional)
+                .isPresent()
+                .hasValueSatisfying(film -> assertThat(film.getLikes()).hasSize(1));
+        assertEquals(0, filmStorage.reconcileLikeCounts());
+        assertThat(filmStorage.putLikeToFilm(filmForPost.getId(), 999)).isEmpty();
+    }
+
+    @Test
+    public void testLikeCountStaysInSyncWithLikes() {
+        Mpa mpa = new Mpa(5, "NC-17");
+        Film filmForPost = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        User user1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User user2 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+
+        filmStorage.postFilm(filmForPost);
+        userStorage.postUser(user1);
+        userStorage.postUser(user2);
+        filmStorage.putLikeToFilm(filmForPost.getId(), user1.getId());
+        filmStorage.putLikeToFilm(filmForPost.getId(), user2.getId());
+        filmStorage.deleteLikeFromFilm(filmForPost.getId(), user1.getId());
+        userStorage.deleteUser(user2.getId());
+
+        assertEquals(0, filmStorage.reconcileLikeCounts());
+    }
+
     @Test
     public void testSearchByTitleByDirector() {
         Film film1 = Film.builder()
@@ -453,4 +613,98 @@ class FilmControllerTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSearchFollowsFilmAndDirectorChanges() {
+        Director director = directorStorage.createDirector(new Director(1, "Тарантино"));
+        Film film = Film.builder()
+                .name("Pulp Fiction")
+                .description("Pulp Fiction")
+                .releaseDate(LocalDate.of(1994, 5, 21))
+                .duration(154)
+                .mpa(new Mpa(4, "R"))
+                .build();
+        film.getDirectors().add(director);
+        int filmId = filmStorage.postFilm(film).orElseThrow().getId();
+
+        assertThat(filmStorage.searchByTitle("fict")).extracting(Film::getId).containsExactly(filmId);
+        assertThat(filmStorage.searchByDirector("тино")).extracting(Film::getId).containsExactly(filmId);
+        // Символы LIKE в запросе ищутся как обычные символы
+        assertThat(filmStorage.searchByTitle("%")).isEmpty();
+        // Запрос короче трёх символов тоже ищется в любом месте названия
+        assertThat(filmStorage.searchByTitle("ul")).extracting(Film::getId).containsExactly(filmId);
+        assertThat(filmStorage.searchByTitle(" F")).extracting(Film::getId).containsExactly(filmId);
+        assertThat(filmStorage.searchByTitle("N")).extracting(Film::getId).containsExactly(filmId);
+        assertThat(filmStorage.searchByTitle(" P")).isEmpty();
+        assertThat(filmStorage.searchByTitle("x")).isEmpty();
+
+        film.setName("Jackie Brown");
+        film.getDirectors().clear();
+        filmStorage.putFilm(film);
+
+        assertThat(filmStorage.searchByTitle("fict")).isEmpty();
+        assertThat(filmStorage.searchByTitle("ul")).isEmpty();
+        assertThat(filmStorage.searchByTitle("ie b")).extracting(Film::getId).containsExactly(filmId);
+        assertThat(filmStorage.searchByDirector("тино")).isEmpty();
+
+        film.getDirectors().add(director);
+        filmStorage.putFilm(film);
+        directorStorage.updateDirector(new Director(director.getId(), "Квентин"));
+
+        assertThat(filmStorage.searchByDirector("тино")).isEmpty();
+        assertThat(filmStorage.searchByDirector("квент")).extracting(Film::getId).containsExactly(filmId);
+
+        // Обновление индекса после ранней записи пришло позже, чем закоммитилась следующая запись.
+        // Индекс перечитывает бд и показывает последнее закоммиченное имя
+        jdbcTemplate.update("UPDATE DIRECTORS SET NAME = ? WHERE DIRECTOR_ID = ?", "Тарантино", director.getId());
+        filmSearchIndex.refreshDirector(director.getId());
+        assertThat(filmStorage.searchByDirector("квент")).isEmpty();
+        assertThat(filmStorage.searchByDirector("тино")).extracting(Film::getId).containsExactly(filmId);
+
+        directorStorage.removeDirector(director.getId());
+        assertThat(filmStorage.searchByDirector("тино")).isEmpty();
+
+        filmStorage.deleteFilm(filmId);
+        assertThat(filmStorage.searchByTitleByDirector("jack")).isEmpty();
+    }
+
+    @Test
+    public void testSearchSuggestionsAndTypos() {
+        Director director = directorStorage.createDirector(new Director(1, "Quentin Tarantino"));
+        String[] names = {"Pulp Fiction", "Fight Club", "The Fighter", "Pulp Fiction"};
+        List<Integer> filmIds = new ArrayList<>();
+        for (String name : names) {
+            Film film = Film.builder()
+                    .name(name)
+                    .description(name)
+                    .releaseDate(LocalDate.of(1994, 5, 21))
+                    .duration(120)
+                    .mpa(new Mpa(4, "R"))
+                    .build();
+            if (name.startsWith("Pulp")) {
+                film.getDirectors().add(director);
+            }
+            filmIds.add(filmStorage.postFilm(film).orElseThrow().getId());
+        }
+
+        // Запрос в начале слова, одинаковые названия не повторяются
+        assertThat(filmService.getSearchSuggestions("fi", List.of("title"), 10))
+                .containsExactly("Pulp Fiction", "Fight Club", "The Fighter");
+        assertThat(filmService.getSearchSuggestions("pulp fi", List.of("title", "director"), 10))
+                .containsExactly("Pulp Fiction");
+        assertThat(filmService.getSearchSuggestions("tara", List.of("title", "director"), 10))
+                .containsExactly("Quentin Tarantino");
+        assertThat(filmService.getSearchSuggestions("xyz", List.of("title", "director"), 10)).isEmpty();
+        assertThat(filmService.getSearchSuggestions("fi", List.of("title"), 1)).containsExactly("Pulp Fiction");
+
+        // Опечатки учитывают только подсказки, поиск находит точные совпадения
+        assertThat(filmService.getSearchSuggestions("fictoin", List.of("title"), 10)).containsExactly("Pulp Fiction");
+        assertThat(filmService.getSearchSuggestions("tarantio", List.of("director"), 10))
+                .containsExactly("Quentin Tarantino");
+        assertThat(filmStorage.searchByTitle("pulp fuction")).isEmpty();
+        assertThat(filmStorage.searchByDirector("tarantio")).isEmpty();
+        assertThat(filmStorage.searchByTitleByDirector("tarantio")).isEmpty();
+        assertThat(filmStorage.searchByTitleByDirector("tarantino")).extracting(Film::getId)
+                .containsExactly(filmIds.get(0), filmIds.get(3));
+        assertThat(filmStorage.searchByTitle("xyz")).isEmpty();
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.storage.genre.dao.GenreDbStorage;
@@ -21,6 +22,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class GenreControllerTest {
 
     private final GenreDbStorage genreStorage;
+    private final JdbcTemplate jdbcTemplate;
 
     @Test
     public void testGetGenreById() {
@@ -33,6 +35,18 @@ public class GenreControllerTest {
 
     }
 
+    @Test
+    public void testInvalidateCache() {
+        jdbcTemplate.update("INSERT INTO GENRES (GENRE_ID, NAME) VALUES (7, 'Вестерн')");
+
+        assertThat(genreStorage.getGenreById(7)).isEmpty();
+
+        genreStorage.invalidateCache();
+
+        assertThat(genreStorage.getGenreById(7)).hasValue(new Genre(7, "Вестерн"));
+        assertThat(genreStorage.getGenres()).hasSize(7);
+    }
+
     @Test
     public void testGetAllGenres() {
         List<Genre> genres = (List<Genre>) genreStorage.getGenres();
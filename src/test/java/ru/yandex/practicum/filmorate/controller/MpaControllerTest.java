@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.storage.mpa.dao.MpaDbStorage;
@@ -21,6 +22,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 public class MpaControllerTest {
 
     private final MpaDbStorage mpaStorage;
+    private final JdbcTemplate jdbcTemplate;
 
     @Test
     public void testGetMpaById() {
@@ -33,6 +35,17 @@ public class MpaControllerTest {
 
     }
 
+    @Test
+    public void testInvalidateCache() {
+        jdbcTemplate.update("UPDATE MPA SET NAME = 'General' WHERE MPA_ID = 1");
+
+        assertThat(mpaStorage.getMpaById(1)).hasValue(new Mpa(1, "G"));
+
+        mpaStorage.invalidateCache();
+
+        assertThat(mpaStorage.getMpaById(1)).hasValue(new Mpa(1, "General"));
+    }
+
     @Test
     public void testGetAllMpas() {
         List<Mpa> mpas = (List<Mpa>) mpaStorage.getMpas();
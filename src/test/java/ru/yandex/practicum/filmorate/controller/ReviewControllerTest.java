@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
 import ru.yandex.practicum.filmorate.model.*;
 import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.ReviewService;
@@ -14,12 +15,14 @@ import ru.yandex.practicum.filmorate.storage.event.dao.EventDbStorage;
 import ru.yandex.practicum.filmorate.storage.film.dao.FilmDbStorage;
 import ru.yandex.practicum.filmorate.storage.review.dao.ReviewDbStorage;
 import ru.yandex.practicum.filmorate.storage.user.dao.UserDbStorage;
+import ru.yandex.practicum.filmorate.utility.Pagination;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
@@ -159,6 +162,43 @@ public class ReviewControllerTest {
                 .hasValueSatisfying(review -> assertThat(review).hasFieldOrPropertyWithValue("useful", 0));
     }
 
+    @Test
+    void testGetReviewsPage() {
+        userStorage.postUser(getTestUser());
+        userStorage.postUser(getTestUser());
+        filmStorage.postFilm(getTestFilm());
+        for (int i = 0; i < 3; i++) {
+            reviewService.postReview(getTestReview());
+        }
+
+        reviewService.putLikeToReview(2, 1);
+        reviewService.putLikeToReview(2, 2);
+        reviewService.putDislikeToReview(3, 1);
+
+        CursorPage<Review> firstPage = reviewService.getReviewsPage(1, null, 2);
+        CursorPage<Review> secondPage = reviewService.getReviewsPage(1, firstPage.getNextCursor(), 2);
+
+        assertThat(firstPage.getItems()).extracting(Review::getReviewId).containsExactly(2, 1);
+        assertThat(firstPage.getItems()).extracting(Review::getUseful).containsExactly(2, 0);
+        assertThat(firstPage.getNextCursor()).isNotNull();
+        assertThat(secondPage.getItems()).extracting(Review::getReviewId).containsExactly(3);
+        assertThat(secondPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    void testLegacyCountIsClamped() {
+        userStorage.postUser(getTestUser());
+        filmStorage.postFilm(getTestFilm());
+        reviewService.postReview(getTestReview());
+
+        // Старый count больше максимума работает как раньше, а новый limit проверяется
+        assertThat(reviewService.getReviewsByFilmId(1, Pagination.MAX_LIMIT + 1)).hasSize(1);
+        assertThat(reviewService.getReviewsPageByCount(null, null, Pagination.MAX_LIMIT + 1).getItems()).hasSize(1);
+        assertThat(reviewService.getReviewsByFilmId(1, 0)).isEmpty();
+        assertThrows(IncorrectParameterException.class,
+                () -> reviewService.getReviewsPage(1, null, Pagination.MAX_LIMIT + 1));
+    }
+
     @Test
     void testDeleteReview() {
         userStorage.postUser(getTestUser());
@@ -234,4 +274,28 @@ public class ReviewControllerTest {
                 .hasValueSatisfying(review -> assertThat(review).hasFieldOrPropertyWithValue("userId", 1))
                 .hasValueSatisfying(review -> assertThat(review).hasFieldOrPropertyWithValue("useful", 0));
     }
+
+    @Test
+    void testUsefulIsRecountedAfterUserDeletion() {
+        userStorage.postUser(getTestUser());
+        userStorage.postUser(getTestUser());
+        userStorage.postUser(getTestUser());
+        filmStorage.postFilm(getTestFilm());
+        reviewStorage.postReview(getTestReview());
+        reviewStorage.postReview(getTestReview());
+
+        reviewStorage.putLikeToReview(1, 2);
+        reviewStorage.putLikeToReview(1, 3);
+        reviewStorage.putDislikeToReview(2, 2);
+
+        assertThat(reviewStorage.getReviewById(1)).hasValueSatisfying(review -> assertThat(review.getUseful()).isEqualTo(2));
+        assertThat(reviewStorage.getReviewById(2)).hasValueSatisfying(review -> assertThat(review.getUseful()).isEqualTo(-1));
+
+        // Оценки удалённого пользователя больше не учитываются в полезности
+        userStorage.deleteUser(2);
+
+        assertThat(reviewStorage.getReviewById(1)).hasValueSatisfying(review -> assertThat(review.getUseful()).isEqualTo(1));
+        assertThat(reviewStorage.getReviewById(2)).hasValueSatisfying(review -> assertThat(review.getUseful()).isEqualTo(0));
+        assertThat(reviewStorage.getAllReviews(10)).extracting(Review::getReviewId).containsExactly(1, 2);
+    }
 }
@@ -1,5 +1,7 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -8,11 +10,19 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.exception.IncorrectParameterException;
+import ru.yandex.practicum.filmorate.exception.user.UserNotFoundException;
+import ru.yandex.practicum.filmorate.service.EventService;
 import ru.yandex.practicum.filmorate.service.UserService;
 import ru.yandex.practicum.filmorate.storage.event.dao.EventDbStorage;
 import ru.yandex.practicum.filmorate.storage.film.dao.FilmDbStorage;
 import ru.yandex.practicum.filmorate.storage.user.dao.UserDbStorage;
+import ru.yandex.practicum.filmorate.utility.EventOperation;
+import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.Pagination;
+import ru.yandex.practicum.filmorate.utility.View;
 
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -21,6 +31,8 @@ import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 @SpringBootTest
 @AutoConfigureTestDatabase
@@ -33,6 +45,10 @@ class UserControllerTest {
     private final UserService userService;
 
     private final EventDbStorage eventDbStorage;
+    private final EventService eventService;
+    private final UserController userController;
+
+    private final ObjectMapper objectMapper;
 
 
     @Test
@@ -76,7 +92,7 @@ class UserControllerTest {
         userStorage.postUser(user1);
         userStorage.postUser(user2);
 
-        List<User> users = (List<User>) userStorage.getUsers();
+        List<User> users = userStorage.getUsersAfter(0, 2, View.FULL);
 
         Optional<User> userOptional1 = Optional.of(users.get(0));
         Optional<User> userOptional2 = Optional.of(users.get(1));
@@ -99,6 +115,19 @@ class UserControllerTest {
 
     }
 
+    @Test
+    public void testStreamUsers() {
+        userStorage.postUser(new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22)));
+        userStorage.postUser(new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24)));
+        userStorage.putUserFriend(1, 2);
+
+        List<User> users = new ArrayList<>();
+        userStorage.streamUsers(View.FULL, users::add);
+
+        assertThat(users).containsExactly(userStorage.getUserById(1).orElseThrow(),
+                userStorage.getUserById(2).orElseThrow());
+    }
+
     @Test
     public void testGetUserById() {
         User userForPost = new User(10, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
@@ -198,6 +227,43 @@ class UserControllerTest {
 
     }
 
+    @Test
+    public void testGetFriendSummaries() throws JsonProcessingException {
+        User userForPost = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        Film filmForPost = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, new Mpa(5, "NC-17"));
+
+        userStorage.postUser(userForPost);
+        userStorage.postUser(friend1);
+        filmStorage.postFilm(filmForPost);
+        userStorage.putUserFriend(userForPost.getId(), friend1.getId());
+        userStorage.putUserFriend(friend1.getId(), userForPost.getId());
+        filmStorage.putLikeToFilm(filmForPost.getId(), friend1.getId());
+
+        List<User> friends = new ArrayList<>(userService.getFriends(userForPost.getId(), View.FULL));
+        List<User> summaries = new ArrayList<>(userService.getFriends(userForPost.getId(), View.SUMMARY));
+
+        assertThat(friends).hasSize(1);
+        assertThat(friends.get(0).getLikes()).hasSize(1);
+        assertThat(friends.get(0).getFriendShips()).hasSize(1);
+
+        // В кратком виде поля пользователя те же, но лайки и друзья не загружаются и не сериализуются
+        assertThat(summaries)
+                .hasSize(1)
+                .allSatisfy(user -> assertThat(user.getLikes()).isEmpty())
+                .allSatisfy(user -> assertThat(user.getFriendShips()).isEmpty());
+        assertThat(summaries.get(0))
+                .usingRecursiveComparison()
+                .ignoringFields("likes", "friendShips")
+                .isEqualTo(friends.get(0));
+
+        String json = objectMapper.writerWithView(Views.Summary.class).writeValueAsString(summaries);
+        assertEquals("[{\"id\":2,\"email\":\"satori@gmaill.com\",\"login\":\"Satori\",\"name\":\"Stas\"," +
+                "\"birthday\":\"1989-10-24\"}]", json);
+
+        assertThrows(IncorrectParameterException.class, () -> View.parse("tiny"));
+    }
+
     @Test
     public void testGetCommonFriends() {
         User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
@@ -239,6 +305,212 @@ class UserControllerTest {
         Assertions.assertEquals(feed.size(), 2);
     }
 
+    @Test
+    public void testGetFeedPage() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+
+        userService.postUser(userForPost1);
+        userService.postUser(friend1);
+        userService.putUserFriend(userForPost1.getId(), friend1.getId());
+        userService.deleteUserFriend(userForPost1.getId(), friend1.getId());
+
+        // Страницы идут от новых событий к старым
+        CursorPage<Event> firstPage = eventService.getFeedPage(userForPost1.getId(), null, null, 1);
+        CursorPage<Event> secondPage = eventService.getFeedPage(userForPost1.getId(), firstPage.getNextCursor(), null, 1);
+
+        assertThat(firstPage.getItems()).extracting(Event::getOperation).containsExactly(EventOperation.REMOVE);
+        assertThat(secondPage.getItems()).extracting(Event::getOperation).containsExactly(EventOperation.ADD);
+        assertThat(secondPage.getNextCursor()).isNull();
+    }
+
+    @Test
+    public void testGetFeedBefore() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        userStorage.postUser(userForPost1);
+
+        // У событий 2 и 3 одинаковый timestamp
+        List<Event> events = new ArrayList<>();
+        for (long timestamp : new long[]{1000, 2000, 2000, 3000}) {
+            events.add(Event.builder()
+                    .timestamp(timestamp)
+                    .userId(userForPost1.getId())
+                    .eventType(EventType.LIKE)
+                    .operation(EventOperation.ADD)
+                    .entityId(1)
+                    .build());
+        }
+        eventDbStorage.createEvents(events);
+
+        CursorPage<Event> firstPage = eventService.getFeedPage(userForPost1.getId(), null, null, 2);
+        assertThat(firstPage.getItems()).extracting(Event::getEventId).containsExactly(4, 3);
+
+        // Страница кончается посреди событий с одинаковым timestamp, но курсор хранит и timestamp, и айди,
+        // поэтому следующая начинается сразу за ней
+        CursorPage<Event> secondPage = eventService.getFeedPage(userForPost1.getId(), firstPage.getNextCursor(), null, 2);
+        assertThat(secondPage.getItems()).extracting(Event::getEventId).containsExactly(2, 1);
+        assertThat(secondPage.getNextCursor()).isNull();
+
+        // before задаёт начало первой страницы: события строго старше before
+        CursorPage<Event> beforePage = eventService.getFeedPage(userForPost1.getId(), null, 3000L, 1);
+        assertThat(beforePage.getItems()).extracting(Event::getEventId).containsExactly(3);
+        assertThat(eventService.getFeedPage(userForPost1.getId(), beforePage.getNextCursor(), null, 2).getItems())
+                .extracting(Event::getEventId).containsExactly(2, 1);
+        assertThat(eventService.getFeedPage(userForPost1.getId(), null, 1000L, 2).getItems()).isEmpty();
+    }
+
+    @Test
+    public void testGetFeedRejectsMixedPaging() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        userStorage.postUser(userForPost1);
+
+        // before задаёт только начало первой страницы, а курсор - начало следующей, поэтому вместе их не передают
+        String cursor = Pagination.encodeCursor(1000, 1);
+        assertThrows(IncorrectParameterException.class,
+                () -> userController.getFeed(userForPost1.getId(), cursor, 10, 1000L));
+        assertThat(userController.getFeed(userForPost1.getId(), cursor, 10, null).getBody()).isEmpty();
+        assertThat(userController.getFeed(userForPost1.getId(), null, 10, 1000L).getBody()).isEmpty();
+    }
+
+    @Test
+    public void testDeleteExpiredEvents() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        userStorage.postUser(userForPost1);
+
+        eventDbStorage.createEvents(List.of(
+                new Event(0, 1000, userForPost1.getId(), EventType.LIKE, EventOperation.ADD, 1),
+                new Event(0, System.currentTimeMillis(), userForPost1.getId(), EventType.LIKE, EventOperation.REMOVE, 1)));
+
+        // Срок хранения 0 дней - события хранятся всегда
+        EventService keepForeverService = new EventService(eventDbStorage, "sync", 500, 50, 10, 0, 5000);
+        assertEquals(0, keepForeverService.deleteExpiredEvents());
+
+        // По умолчанию удаление выключено
+        assertEquals(0, eventService.deleteExpiredEvents());
+
+        EventService retentionService = new EventService(eventDbStorage, "sync", 500, 50, 10, 365, 5000);
+        assertEquals(1, retentionService.deleteExpiredEvents());
+        assertThat(eventDbStorage.getFeed(userForPost1.getId()))
+                .extracting(Event::getOperation)
+                .containsExactly(EventOperation.REMOVE);
+    }
+
+    @Test
+    public void testFeedWriteModes() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        userStorage.postUser(userForPost1);
+        userStorage.postUser(friend1);
+
+        // В режиме async события пишутся в фоне, но лента дожидается их записи
+        EventService asyncService = new EventService(eventDbStorage, "async", 2, 1000, 10, 0, 5000);
+        for (int i = 0; i < 3; i++) {
+            asyncService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, friend1.getId());
+        }
+        assertEquals(3, asyncService.getFeed(userForPost1.getId()).size());
+        // Неверный entityId проверяется до очереди, поэтому ошибку получает запрос и в режиме async
+        assertThrows(UserNotFoundException.class,
+                () -> asyncService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, 0));
+
+        // При остановке очередь записывается целиком
+        asyncService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.REMOVE, friend1.getId());
+        asyncService.shutdown();
+        assertThat(eventDbStorage.getFeed(userForPost1.getId()))
+                .extracting(Event::getOperation)
+                .containsExactly(EventOperation.ADD, EventOperation.ADD, EventOperation.ADD, EventOperation.REMOVE);
+
+        // В режиме group-commit запрос ждёт записи и получает ошибку своего события
+        EventService groupCommitService = new EventService(eventDbStorage, "group-commit", 500, 50, 10, 0, 5000);
+        assertThrows(UserNotFoundException.class,
+                () -> groupCommitService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, 0));
+        groupCommitService.createEvent(friend1.getId(), EventType.FRIEND, EventOperation.ADD, userForPost1.getId());
+        assertEquals(1, eventDbStorage.getFeed(friend1.getId()).size());
+        groupCommitService.shutdown();
+    }
+
+    @Test
+    public void testFailedFeedBatchIsNotDuplicated() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        userStorage.postUser(userForPost1);
+        userStorage.postUser(friend1);
+
+        // Пакет с событием несуществующего пользователя откатывается целиком
+        List<Event> mixedBatch = List.of(
+                new Event(0, 1000, userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, friend1.getId()),
+                new Event(0, 1000, 999, EventType.FRIEND, EventOperation.ADD, friend1.getId()),
+                new Event(0, 1000, userForPost1.getId(), EventType.FRIEND, EventOperation.REMOVE, friend1.getId()));
+        assertThrows(RuntimeException.class, () -> eventDbStorage.createEvents(mixedBatch));
+        assertThat(eventDbStorage.getFeed(userForPost1.getId())).isEmpty();
+
+        // Поток записи пишет такой пакет по одному событию, и верные события записываются ровно один раз
+        EventService asyncService = new EventService(eventDbStorage, "async", 3, 60000, 10, 0, 5000);
+        asyncService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, friend1.getId());
+        asyncService.createEvent(999, EventType.FRIEND, EventOperation.ADD, friend1.getId());
+        asyncService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.REMOVE, friend1.getId());
+        assertThat(asyncService.getFeed(userForPost1.getId()))
+                .extracting(Event::getOperation)
+                .containsExactly(EventOperation.ADD, EventOperation.REMOVE);
+        asyncService.shutdown();
+    }
+
+    @Test
+    public void testFeedIsWrittenAfterWriterIsInterrupted() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        userStorage.postUser(userForPost1);
+        userStorage.postUser(friend1);
+
+        EventService groupCommitService = new EventService(eventDbStorage, "group-commit", 500, 50, 10, 0, 100);
+        groupCommitService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, friend1.getId());
+
+        // Прерывание потока записи не должно останавливать запись ленты
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("feed-writer")) {
+                thread.interrupt();
+            }
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            groupCommitService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.REMOVE, friend1.getId());
+            assertThat(groupCommitService.getFeed(userForPost1.getId()))
+                    .extracting(Event::getOperation)
+                    .containsExactly(EventOperation.ADD, EventOperation.REMOVE);
+        });
+        groupCommitService.shutdown();
+    }
+
+    @Test
+    public void testFeedIsWrittenAfterShutdown() {
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User friend1 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        userStorage.postUser(userForPost1);
+        userStorage.postUser(friend1);
+
+        // После остановки событие не пропадает: его записывает поток запроса в обоих режимах
+        for (String mode : new String[]{"async", "group-commit"}) {
+            EventService stoppedService = new EventService(eventDbStorage, mode, 500, 50, 10, 0, 5000);
+            stoppedService.shutdown();
+            stoppedService.createEvent(userForPost1.getId(), EventType.FRIEND, EventOperation.ADD, friend1.getId());
+        }
+        assertEquals(2, eventDbStorage.getFeed(userForPost1.getId()).size());
+    }
+
+    @Test
+    public void testGetUsersPage() {
+        for (int i = 1; i <= 3; i++) {
+            userStorage.postUser(new User(i, "user" + i + "@gmaill.com", "user" + i, "User", LocalDate.of(2002, 10, 22)));
+        }
+
+        CursorPage<User> firstPage = userService.getUsersPage(null, 2);
+        CursorPage<User> secondPage = userService.getUsersPage(firstPage.getNextCursor(), 2);
+
+        assertThat(firstPage.getItems()).extracting(User::getId).containsExactly(1, 2);
+        assertThat(secondPage.getItems()).extracting(User::getId).containsExactly(3);
+        assertThat(secondPage.getNextCursor()).isNull();
+        assertThrows(IncorrectParameterException.class, () -> userService.getUsersPage("not a cursor", 2));
+    }
+
     @Test
     public void testGetRecommendations() {
         Mpa mpa = new Mpa(5, "NC-17");
@@ -280,6 +552,43 @@ class UserControllerTest {
 
     }
 
+    @Test
+    public void testGetRecommendationsSkipsUsersWithoutNewFilms() {
+        Mpa mpa = new Mpa(5, "NC-17");
+        User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
+        User userForPost2 = new User(2, "satori@gmaill.com", "Satori", "Stas", LocalDate.of(1989, 10, 24));
+        User userForPost3 = new User(3, "kirill@gmaill.com", "Kirill", "Kirill", LocalDate.of(1995, 5, 14));
+        User userForPost4 = new User(4, "anna@gmaill.com", "Anna", "Anna", LocalDate.of(1999, 3, 8));
+        Film filmForPost1 = new Film(1, "Viktor B Live", "Viktor B hates everyone even you.", LocalDate.of(2002, 10, 22), 60, mpa);
+        Film filmForPost2 = new Film(2, "Stas Live", "Stas B hates everyone even you.", LocalDate.of(1989, 10, 24), 120, mpa);
+        Film filmForPost3 = new Film(3, "Kirill Live", "Kirill loves everyone.", LocalDate.of(1995, 5, 14), 90, mpa);
+
+        filmStorage.postFilm(filmForPost1);
+        filmStorage.postFilm(filmForPost2);
+        filmStorage.postFilm(filmForPost3);
+
+        userStorage.postUser(userForPost1);
+        userStorage.postUser(userForPost2);
+        userStorage.postUser(userForPost3);
+        userStorage.postUser(userForPost4);
+
+        // У второго пользователя те же лайки, что и у первого, поэтому он не должен перекрывать третьего,
+        // у которого совпадений меньше, но есть что рекомендовать
+        filmStorage.putLikeToFilm(filmForPost1.getId(), userForPost1.getId());
+        filmStorage.putLikeToFilm(filmForPost2.getId(), userForPost1.getId());
+        filmStorage.putLikeToFilm(filmForPost1.getId(), userForPost2.getId());
+        filmStorage.putLikeToFilm(filmForPost2.getId(), userForPost2.getId());
+        filmStorage.putLikeToFilm(filmForPost1.getId(), userForPost3.getId());
+        filmStorage.putLikeToFilm(filmForPost3.getId(), userForPost3.getId());
+
+        assertThat(userService.getRecommendationFilms(userForPost1.getId()))
+                .extracting(Film::getId)
+                .containsExactly(3);
+
+        // Пользователю без лайков рекомендовать нечего
+        assertThat(userService.getRecommendationFilms(userForPost4.getId())).isEmpty();
+    }
+
     @Test
     public void testDeleteUser() {
         User userForPost1 = new User(1, "vitekb650@gmaill.com", "PriestSexist", "Viktor", LocalDate.of(2002, 10, 22));
@@ -287,6 +596,6 @@ class UserControllerTest {
 
         userStorage.deleteUser(userForPost1.getId());
 
-        assertEquals(userStorage.getUsers().size(), 0);
+        assertThat(userStorage.getUserById(userForPost1.getId())).isEmpty();
     }
 }
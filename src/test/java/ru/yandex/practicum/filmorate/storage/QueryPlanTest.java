@@ -0,0 +1,303 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.storage.SqlRecorder.RecordedStatement;
+import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.dao.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.dao.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+import ru.yandex.practicum.filmorate.utility.EventOperation;
+import ru.yandex.practicum.filmorate.utility.EventType;
+import ru.yandex.practicum.filmorate.utility.View;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Вызывает все методы хранилищ, затем делает EXPLAIN для каждого отправленного ими запроса
+ * и проверяет, что ни одна большая таблица не читается целиком.
+ * Если у хранилища появится метод, который здесь не вызывается, тест упадёт.
+ */
+@SpringBootTest
+@AutoConfigureTestDatabase
+@Import(SqlRecorder.class)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@DirtiesContext
+public class QueryPlanTest {
+
+    // Доступ к таблице: "FROM "PUBLIC"."FILMS" "F" /* PUBLIC.FILMS.tableScan */" или "/* PUBLIC.SOME_INDEX */".
+    // Индекс с условием выглядит как "/* PUBLIC.SOME_INDEX: FILM_ID = ?1 */" и под шаблон не попадает
+    private static final Pattern FULL_SCAN =
+            Pattern.compile("\"PUBLIC\"\\.\"(\\w+)\"[^/]*/\\*\\s*PUBLIC\\.[^\\s:*]+\\s*\\*/");
+
+    // Запрос вида "SELECT * FROM FINAL TABLE (UPDATE ...)". H2 не показывает план вложенного изменения,
+    // поэтому EXPLAIN делается для него отдельно
+    private static final Pattern DATA_CHANGE_DELTA =
+            Pattern.compile("FROM\\s+(?:FINAL|NEW|OLD)\\s+TABLE\\s*\\((.*)\\)\\s*$",
+                    Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    // Справочники, которые отдаются целиком и растут только вместе с кодом приложения
+    private static final Set<String> SMALL_TABLES = Set.of("GENRES", "MPA");
+
+    // Запросы, которые читают таблицу целиком по своему назначению: загрузка поискового индекса
+    // при старте, список всех режиссёров для GET /directors и сверка счётчиков лайков со всей таблицей LIKES
+    private static final List<String> KNOWN_FULL_SCANS = List.of(
+            "select * from directors order by director_id",
+            "SELECT FILM_ID, NAME FROM FILMS",
+            "SELECT DIRECTOR_ID, NAME FROM DIRECTORS",
+            "SELECT FILM_ID, DIRECTOR_ID FROM FILM_DIRECTORS",
+            "WHERE LIKE_COUNT <> (SELECT COUNT(*) FROM LIKES AS L WHERE L.FILM_ID = F.FILM_ID)");
+
+    private final SqlRecorder sqlRecorder;
+    private final DataSource dataSource;
+    private final FilmDbStorage filmDbStorage;
+    private final UserStorage userDbStorage;
+    private final ReviewStorage reviewDbStorage;
+    private final DirectorStorage directorDbStorage;
+    private final GenreStorage genreDbStorage;
+    private final MpaStorage mpaDbStorage;
+    private final EventStorage eventDbStorage;
+    private final FilmSearchIndex filmSearchIndex;
+
+    // Методы хранилищ, которые тест вызвал
+    private final Set<Method> calledMethods = new HashSet<>();
+
+    @Test
+    public void testStatementsDoNotScanLargeTables() throws SQLException {
+        List<RecordedStatement> statements = sqlRecorder.record(this::callStorages);
+        assertThat(statements).isNotEmpty();
+
+        List<String> notCalled = new ArrayList<>();
+        for (Class<?> storage : List.of(FilmStorage.class, UserStorage.class, ReviewStorage.class,
+                DirectorStorage.class, GenreStorage.class, MpaStorage.class, EventStorage.class)) {
+            for (Method method : storage.getMethods()) {
+                if (!calledMethods.contains(method)) {
+                    notCalled.add(storage.getSimpleName() + "." + method.getName());
+                }
+            }
+        }
+        assertThat(notCalled).isEmpty();
+
+        Map<String, List<Object>> keyedStatements = new LinkedHashMap<>();
+        for (RecordedStatement statement : statements) {
+            String sql = statement.getSql();
+            if (KNOWN_FULL_SCANS.stream().noneMatch(sql::contains)) {
+                keyedStatements.putIfAbsent(sql, statement.getParams());
+            }
+        }
+
+        List<String> fullScans = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (Map.Entry<String, List<Object>> entry : keyedStatements.entrySet()) {
+                String plan = explain(connection, entry.getKey(), entry.getValue());
+                // Чтение одной таблицы по индексу в нужном порядке с LIMIT останавливается на первых строках
+                if (plan.contains("/* index sorted */") && plan.contains("FETCH FIRST") && !plan.contains(" JOIN ")) {
+                    continue;
+                }
+                Matcher matcher = FULL_SCAN.matcher(plan);
+                while (matcher.find()) {
+                    if (!SMALL_TABLES.contains(matcher.group(1))) {
+                        fullScans.add(matcher.group(1) + " <- " + plan);
+                    }
+                }
+            }
+        }
+        assertThat(fullScans).isEmpty();
+    }
+
+    private String explain(Connection connection, String sql, List<Object> params) throws SQLException {
+        Matcher delta = DATA_CHANGE_DELTA.matcher(sql);
+        if (delta.find()) {
+            sql = delta.group(1);
+        }
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.size(); i++) {
+                statement.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private void callStorages() {
+        FilmStorage films = track(FilmStorage.class, filmDbStorage);
+        UserStorage users = track(UserStorage.class, userDbStorage);
+        ReviewStorage reviews = track(ReviewStorage.class, reviewDbStorage);
+        DirectorStorage directors = track(DirectorStorage.class, directorDbStorage);
+        GenreStorage genres = track(GenreStorage.class, genreDbStorage);
+        MpaStorage mpas = track(MpaStorage.class, mpaDbStorage);
+        EventStorage events = track(EventStorage.class, eventDbStorage);
+
+        genres.invalidateCache();
+        genres.getGenres();
+        genres.getGenreById(1);
+        mpas.invalidateCache();
+        mpas.getMpas();
+        mpas.getMpaById(1);
+
+        Director director = directors.createDirector(new Director(0, "Test director"));
+        directors.updateDirector(director);
+        directors.getDirector(director.getId());
+        directors.getDirectors();
+        directors.isDirectorPresent(director.getId());
+
+        User user = users.postUser(getTestUser("user")).orElseThrow();
+        User friend = users.postUser(getTestUser("friend")).orElseThrow();
+        users.putUser(user);
+
+        Film film = getTestFilm();
+        film.getDirectors().add(director);
+        film = films.postFilm(film).orElseThrow();
+        films.putFilm(film);
+        Film otherFilm = films.postFilm(getTestFilm()).orElseThrow();
+        filmSearchIndex.refreshFilm(film.getId());
+        filmSearchIndex.refreshDirector(director.getId());
+        filmSearchIndex.invalidateCache();
+
+        films.putLikeToFilm(film.getId(), user.getId());
+        films.putLikeToFilm(film.getId(), friend.getId());
+        films.putLikeToFilm(otherFilm.getId(), friend.getId());
+        films.streamFilms(View.FULL, f -> {
+        });
+        films.streamFilms(View.SUMMARY, f -> {
+        });
+        films.getFilmsAfter(film.getId(), 1, View.FULL);
+        films.getFilmsAfter(film.getId(), 1, View.SUMMARY);
+        films.getFilmsByIds(List.of(film.getId(), otherFilm.getId()));
+        films.getFilmById(film.getId());
+        films.existsFilm(film.getId());
+        films.getPopular(10);
+        films.getPopularByGenre(10, 1);
+        films.getPopularByYear(10, 2002);
+        films.getPopularByGenreByYear(10, 1, 2002);
+        films.getCommonFilms(user.getId(), friend.getId());
+        films.getFilmsByDirectorId(director.getId(), false, 10, 0);
+        films.getFilmsByDirectorId(director.getId(), true, 10, 0);
+        films.searchByTitle("test");
+        films.searchByDirector("test");
+        films.searchByTitleByDirector("test");
+        films.getTitleSuggestions("tes", 5);
+        films.getDirectorSuggestions("tes", 5);
+        directors.getDirectorFilmIds(director.getId());
+
+        users.putUserFriend(user.getId(), friend.getId());
+        users.putUserFriend(friend.getId(), user.getId());
+        users.streamUsers(View.FULL, u -> {
+        });
+        users.streamUsers(View.SUMMARY, u -> {
+        });
+        users.getUsersAfter(user.getId(), 1, View.FULL);
+        users.getUsersAfter(user.getId(), 1, View.SUMMARY);
+        users.getUserById(user.getId());
+        users.existsUser(user.getId());
+        users.getFriends(user.getId());
+        users.getFriends(user.getId(), View.SUMMARY);
+        users.getCommonFriends(user.getId(), friend.getId());
+        users.getRecommendedFilmIds(user.getId());
+        users.getLikedFilmIds(user.getId());
+
+        Review review = reviews.postReview(Review.builder()
+                .content("Test review")
+                .isPositive(true)
+                .filmId(film.getId())
+                .userId(user.getId())
+                .build()).orElseThrow();
+        reviews.updateReview(review);
+        reviews.putLikeToReview(review.getReviewId(), friend.getId());
+        reviews.deleteLikeFromReview(review.getReviewId(), friend.getId());
+        reviews.putDislikeToReview(review.getReviewId(), friend.getId());
+        reviews.deleteDislikeFromReview(review.getReviewId(), friend.getId());
+        reviews.getReviewById(review.getReviewId());
+        reviews.invalidateFilms(List.of(film.getId()));
+        reviews.getReviewsByFilmId(film.getId(), 10);
+        reviews.getReviewsByFilmId(null, 10);
+        reviews.getAllReviews(10);
+        reviews.invalidateFilms(List.of(film.getId()));
+        reviews.getReviewsAfter(film.getId(), 0, review.getReviewId(), 10);
+        reviews.getReviewsAfter(null, 0, review.getReviewId(), 10);
+        reviews.getUserReviewFilmIds(user.getId());
+
+        Event event = Event.builder()
+                .timestamp(System.currentTimeMillis())
+                .userId(user.getId())
+                .eventType(EventType.LIKE)
+                .operation(EventOperation.ADD)
+                .entityId(film.getId())
+                .build();
+        events.checkEvent(event);
+        events.createEvent(event);
+        events.createEvents(List.of(event, event));
+        events.getFeed(user.getId());
+        events.getFeed(user.getId(), event.getTimestamp(), event.getEventId(), 10);
+        events.deleteEventsBefore(event.getTimestamp(), 10);
+
+        films.reconcileLikeCounts();
+        reviews.deleteReview(review.getReviewId());
+        films.deleteLikeFromFilm(film.getId(), user.getId());
+        users.deleteUserFriend(user.getId(), friend.getId());
+        films.deleteFilm(otherFilm.getId());
+        directors.removeDirector(director.getId());
+        users.deleteUser(friend.getId());
+    }
+
+    // Оборачивает хранилище, чтобы запомнить, какие его методы вызваны
+    @SuppressWarnings("unchecked")
+    private <T> T track(Class<T> type, T storage) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    calledMethods.add(method);
+                    try {
+                        return method.invoke(storage, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private Film getTestFilm() {
+        Film film = Film.builder()
+                .name("Test film")
+                .description("Test test")
+                .releaseDate(LocalDate.of(2002, 10, 22))
+                .duration(100)
+                .mpa(new Mpa(1, "G"))
+                .build();
+        film.getGenres().add(new Genre(1, "Комедия"));
+        return film;
+    }
+
+    private User getTestUser(String login) {
+        return User.builder()
+                .name("Test " + login)
+                .email(login + "@mail.ru")
+                .login(login)
+                .birthday(LocalDate.of(2000, 10, 8))
+                .build();
+    }
+}
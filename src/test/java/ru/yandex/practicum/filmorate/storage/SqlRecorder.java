@@ -0,0 +1,122 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import lombok.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.TestComponent;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Оборачивает DataSource приложения и запоминает выполненные через него SQL-запросы вместе с параметрами.
+ * Подключается к тесту через @Import(SqlRecorder.class).
+ */
+@TestComponent
+public class SqlRecorder implements BeanPostProcessor {
+
+    private final List<RecordedStatement> statements = new CopyOnWriteArrayList<>();
+    private volatile boolean recording;
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource)) {
+            return bean;
+        }
+        return new DelegatingDataSource((DataSource) bean) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return wrapConnection(super.getConnection());
+            }
+
+            @Override
+            public Connection getConnection(String username, String password) throws SQLException {
+                return wrapConnection(super.getConnection(username, password));
+            }
+        };
+    }
+
+    /**
+     * Выполняет действие и возвращает все запросы, отправленные в базу за время его работы
+     */
+    public List<RecordedStatement> record(Runnable action) {
+        statements.clear();
+        recording = true;
+        try {
+            action.run();
+        } finally {
+            recording = false;
+        }
+        return new ArrayList<>(statements);
+    }
+
+    private Connection wrapConnection(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement && args != null && args[0] instanceof String) {
+                        return wrapPreparedStatement((PreparedStatement) result, (String) args[0]);
+                    }
+                    if (result instanceof Statement && !(result instanceof PreparedStatement)) {
+                        return wrapStatement((Statement) result);
+                    }
+                    return result;
+                });
+    }
+
+    private PreparedStatement wrapPreparedStatement(PreparedStatement statement, String sql) {
+        Map<Integer, Object> params = new TreeMap<>();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                        params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                    } else if (name.equals("clearParameters")) {
+                        params.clear();
+                    } else if (args == null && (name.startsWith("execute") || name.equals("addBatch"))) {
+                        save(sql, new ArrayList<>(params.values()));
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private Statement wrapStatement(Statement statement) {
+        return (Statement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Statement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (args != null && args[0] instanceof String
+                            && (name.startsWith("execute") || name.equals("addBatch"))) {
+                        save((String) args[0], List.of());
+                    }
+                    return invoke(statement, method, args);
+                });
+    }
+
+    private void save(String sql, List<Object> params) {
+        if (recording) {
+            statements.add(new RecordedStatement(sql, params));
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Value
+    public static class RecordedStatement {
+        String sql;
+        List<Object> params;
+    }
+}
@@ -0,0 +1,476 @@
+package ru.yandex.practicum.filmorate.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import ru.yandex.practicum.filmorate.model.*;
+import ru.yandex.practicum.filmorate.service.DirectorService;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.UserService;
+import ru.yandex.practicum.filmorate.storage.director.DirectorStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.cache.FilmCache;
+import ru.yandex.practicum.filmorate.storage.genre.GenreStorage;
+import ru.yandex.practicum.filmorate.storage.mpa.MpaStorage;
+import ru.yandex.practicum.filmorate.storage.review.ReviewStorage;
+import ru.yandex.practicum.filmorate.storage.review.dao.FilmReviewIndex;
+import ru.yandex.practicum.filmorate.storage.user.UserStorage;
+import ru.yandex.practicum.filmorate.utility.View;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверяет, что количество запросов к бд не растёт вместе с количеством возвращаемых объектов.
+ */
+@SpringBootTest
+@AutoConfigureTestDatabase
+@Import(SqlRecorder.class)
+@RequiredArgsConstructor(onConstructor_ = @Autowired)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class StatementCountTest {
+
+    private static final int FILMS_COUNT = 20;
+
+    private final SqlRecorder sqlRecorder;
+    private final FilmStorage filmStorage;
+    private final FilmCache filmCache;
+    private final UserStorage userStorage;
+    private final DirectorStorage directorStorage;
+    private final GenreStorage genreStorage;
+    private final MpaStorage mpaStorage;
+    private final ReviewStorage reviewStorage;
+    private final UserService userService;
+    private final FilmService filmService;
+    private final DirectorService directorService;
+    private final MeterRegistry meterRegistry;
+
+    @Test
+    public void testFilmListsAreLoadedWithFixedNumberOfStatements() {
+        List<Film> films = createFilms();
+
+        // Фильмы + лайки + жанры + режиссёры
+        assertThat(sqlRecorder.record(() -> filmStorage.getPopular(FILMS_COUNT))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.getPopularByGenre(FILMS_COUNT, 1))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.getPopularByYear(FILMS_COUNT, 2002))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.getPopularByGenreByYear(FILMS_COUNT, 1, 2002))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.searchByTitle("film"))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.searchByDirector("director"))).hasSize(4);
+        assertThat(sqlRecorder.record(() -> filmStorage.searchByTitleByDirector("film"))).hasSize(4);
+
+        List<Film> popular = filmStorage.getPopular(FILMS_COUNT);
+        assertThat(popular).hasSize(FILMS_COUNT);
+        assertThat(popular.get(0)).isEqualTo(filmStorage.getFilmById(films.get(FILMS_COUNT - 1).getId()).orElseThrow());
+    }
+
+    @Test
+    public void testDirectorFilmsAreSortedInDb() {
+        List<Film> films = createFilms();
+        int directorId = films.get(0).getDirectors().get(0).getId();
+
+        // Фильмы + лайки + жанры + режиссёры, независимо от количества фильмов режиссёра
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmsByDirectorId(directorId, false, FILMS_COUNT, 0)))
+                .hasSize(4);
+
+        // У последних фильмов больше всего лайков
+        assertThat(filmStorage.getFilmsByDirectorId(directorId, false, 3, 1)).extracting(Film::getId)
+                .containsExactly(films.get(FILMS_COUNT - 2).getId(), films.get(FILMS_COUNT - 3).getId(),
+                        films.get(FILMS_COUNT - 4).getId());
+        // Даты выхода одинаковые, поэтому фильмы идут по айди
+        assertThat(filmStorage.getFilmsByDirectorId(directorId, true, FILMS_COUNT, 0))
+                .containsExactlyElementsOf(filmStorage.getFilmsByIds(films.stream().map(Film::getId).collect(Collectors.toList())));
+        assertThat(filmStorage.getFilmsByDirectorId(directorId, true, 5, FILMS_COUNT)).isEmpty();
+    }
+
+    @Test
+    public void testCommonFilmsAreLoadedWithFixedNumberOfStatements() {
+        List<Film> films = createFilms();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+
+        // Первый пользователь лайкнул все фильмы, десятый - фильмы начиная с девятого
+        assertThat(sqlRecorder.record(() -> filmStorage.getCommonFilms(users.get(0).getId(), users.get(9).getId())))
+                .hasSize(4);
+
+        List<Film> commonFilms = filmStorage.getCommonFilms(users.get(0).getId(), users.get(9).getId());
+        assertThat(commonFilms).hasSize(FILMS_COUNT - 9);
+        assertThat(commonFilms.get(0).getId()).isEqualTo(films.get(FILMS_COUNT - 1).getId());
+        assertThat(commonFilms).isSortedAccordingTo((first, second) ->
+                Integer.compare(second.getLikes().size(), first.getLikes().size()));
+        assertThat(filmStorage.getCommonFilms(users.get(0).getId(), -1)).isEmpty();
+    }
+
+    @Test
+    public void testSummaryViewSkipsRelations() {
+        createFilms();
+
+        // Фильмы + жанры + режиссёры, без лайков
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmsAfter(0, FILMS_COUNT, View.SUMMARY))).hasSize(3);
+        // Только пользователи
+        assertThat(sqlRecorder.record(() -> userStorage.getUsersAfter(0, FILMS_COUNT, View.SUMMARY))).hasSize(1);
+
+        List<Film> films = filmStorage.getFilmsAfter(0, FILMS_COUNT, View.SUMMARY);
+        assertThat(films).hasSize(FILMS_COUNT).allSatisfy(film -> assertThat(film.getLikes()).isEmpty());
+        assertThat(films.get(0))
+                .usingRecursiveComparison()
+                .ignoringFields("likes")
+                .isEqualTo(filmStorage.getFilmsAfter(0, 1, View.FULL).get(0));
+    }
+
+    @Test
+    public void testFriendsAreLoadedWithFixedNumberOfStatements() {
+        createFilms();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+        User user = users.get(0);
+        for (int i = 1; i < users.size(); i++) {
+            userStorage.putUserFriend(user.getId(), users.get(i).getId());
+        }
+
+        // Друзья + их лайки + их друзья
+        assertThat(sqlRecorder.record(() -> userStorage.getFriends(user.getId()))).hasSize(3);
+        // Только друзья
+        assertThat(sqlRecorder.record(() -> userStorage.getFriends(user.getId(), View.SUMMARY))).hasSize(1);
+
+        assertThat(userStorage.getFriends(user.getId()))
+                .containsExactlyElementsOf(users.subList(1, users.size()));
+    }
+
+    @Test
+    public void testCommonFriendsAreLoadedWithOneStatement() {
+        // У каждого пользователя есть лайки, но на количество запросов это не влияет
+        createFilms();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+        User user = users.get(0);
+        User other = users.get(1);
+
+        List<Integer> commonFriendIds = new ArrayList<>();
+        for (int i = 2; i < users.size(); i++) {
+            userStorage.putUserFriend(user.getId(), users.get(i).getId());
+            if (i % 2 == 0) {
+                userStorage.putUserFriend(other.getId(), users.get(i).getId());
+                commonFriendIds.add(users.get(i).getId());
+            }
+        }
+
+        assertThat(sqlRecorder.record(() -> userStorage.getCommonFriends(user.getId(), other.getId()))).hasSize(1);
+        assertThat(userStorage.getCommonFriends(user.getId(), other.getId()))
+                .extracting(User::getId)
+                .containsExactlyElementsOf(commonFriendIds);
+    }
+
+    @Test
+    public void testReferenceDataIsServedFromCache() {
+        assertThat(sqlRecorder.record(() -> {
+            genreStorage.getGenres();
+            genreStorage.getGenreById(1);
+            mpaStorage.getMpas();
+            mpaStorage.getMpaById(1);
+        })).isEmpty();
+    }
+
+    @Test
+    public void testFilmReviewsAreServedFromIndex() {
+        List<Film> films = createFilms();
+        int filmId = films.get(0).getId();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+        List<Review> reviews = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            reviews.add(reviewStorage.postReview(Review.builder()
+                    .content("Review " + i)
+                    .isPositive(true)
+                    .filmId(filmId)
+                    .userId(users.get(i).getId())
+                    .build()).orElseThrow());
+        }
+
+        // Первое обращение загружает отзывы фильма в индекс, следующие обходятся без бд
+        assertThat(sqlRecorder.record(() -> reviewStorage.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 3))).hasSize(1);
+        assertThat(sqlRecorder.record(() -> reviewStorage.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 3))).isEmpty();
+
+        // Оценки меняют порядок отзывов в индексе
+        reviewStorage.putLikeToReview(reviews.get(3).getReviewId(), users.get(0).getId());
+        reviewStorage.putLikeToReview(reviews.get(3).getReviewId(), users.get(1).getId());
+        reviewStorage.putDislikeToReview(reviews.get(0).getReviewId(), users.get(1).getId());
+        reviewStorage.putLikeToReview(reviews.get(4).getReviewId(), users.get(1).getId());
+        reviewStorage.deleteReview(reviews.get(2).getReviewId());
+
+        List<List<Review>> pages = new ArrayList<>();
+        assertThat(sqlRecorder.record(() -> {
+            pages.add(reviewStorage.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 2));
+            pages.add(reviewStorage.getReviewsAfter(filmId, 1, reviews.get(4).getReviewId(), 10));
+        })).isEmpty();
+
+        assertThat(pages.get(0)).extracting(Review::getReviewId)
+                .containsExactly(reviews.get(3).getReviewId(), reviews.get(4).getReviewId());
+        assertThat(pages.get(0)).extracting(Review::getUseful).containsExactly(2, 1);
+        assertThat(pages.get(1)).extracting(Review::getReviewId)
+                .containsExactly(reviews.get(1).getReviewId(), reviews.get(0).getReviewId());
+
+        // Индекс отдаёт то же, что и запрос в бд
+        reviewStorage.invalidateFilms(List.of(filmId));
+        assertThat(reviewStorage.getReviewsByFilmId(filmId, 10))
+                .containsExactlyElementsOf(reviewStorage.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 10));
+    }
+
+    @Test
+    public void testDeletesEvictOnlyAffectedFilmReviews() {
+        List<Film> films = createFilms();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+        for (int i = 0; i < 3; i++) {
+            reviewStorage.postReview(Review.builder()
+                    .content("Review " + i)
+                    .isPositive(true)
+                    .filmId(films.get(i).getId())
+                    .userId(users.get(i).getId())
+                    .build());
+        }
+        // Второй пользователь оценил отзыв к третьему фильму
+        int ratedReviewId = reviewStorage.getReviewsByFilmId(films.get(2).getId(), 1).get(0).getReviewId();
+        reviewStorage.putLikeToReview(ratedReviewId, users.get(1).getId());
+        for (int i = 0; i < 3; i++) {
+            reviewStorage.getReviewsAfter(films.get(i).getId(), Integer.MAX_VALUE, 0, 10);
+        }
+
+        // Удаление пользователя сбрасывает только фильмы, к которым он писал или оценивал отзывы
+        userService.deleteUser(users.get(1).getId());
+        assertThat(sqlRecorder.record(() -> reviewStorage.getReviewsAfter(films.get(0).getId(), Integer.MAX_VALUE, 0, 10)))
+                .isEmpty();
+        assertThat(reviewStorage.getReviewsAfter(films.get(1).getId(), Integer.MAX_VALUE, 0, 10)).isEmpty();
+        assertThat(reviewStorage.getReviewsAfter(films.get(2).getId(), Integer.MAX_VALUE, 0, 10))
+                .extracting(Review::getUseful).containsExactly(0);
+
+        // Удаление фильма сбрасывает только его отзывы
+        filmService.deleteFilm(films.get(2).getId());
+        assertThat(sqlRecorder.record(() -> reviewStorage.getReviewsAfter(films.get(0).getId(), Integer.MAX_VALUE, 0, 10)))
+                .isEmpty();
+        assertThat(reviewStorage.getReviewsAfter(films.get(2).getId(), Integer.MAX_VALUE, 0, 10)).isEmpty();
+    }
+
+    @Test
+    public void testReviewIndexSkipsLoadOvertakenByChange() {
+        List<Film> films = createFilms();
+        int filmId = films.get(0).getId();
+        List<User> users = userStorage.getUsersAfter(0, FILMS_COUNT, View.FULL);
+        Review first = reviewStorage.postReview(Review.builder()
+                .content("First")
+                .isPositive(true)
+                .filmId(filmId)
+                .userId(users.get(0).getId())
+                .build()).orElseThrow();
+        Review second = reviewStorage.postReview(Review.builder()
+                .content("Second")
+                .isPositive(true)
+                .filmId(filmId)
+                .userId(users.get(1).getId())
+                .build()).orElseThrow();
+
+        // Пока загрузка читает бд, второй отзыв получает лайк, и загруженные данные устаревают
+        FilmReviewIndex index = new FilmReviewIndex(10, 10);
+        List<Integer> loads = new ArrayList<>();
+        IntFunction<List<Review>> loader = topSize -> {
+            loads.add(topSize);
+            List<Review> loaded = reviewStorage.getReviewsAfter(null, Integer.MAX_VALUE, 0, topSize);
+            if (loads.size() == 1) {
+                reviewStorage.putLikeToReview(second.getReviewId(), users.get(2).getId());
+                index.refresh(() -> reviewStorage.getReviewById(second.getReviewId()));
+            }
+            return loaded;
+        };
+
+        // Первый запрос отдаёт то, что загрузил, но не кладёт устаревшие данные в индекс
+        assertThat(index.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 10, loader))
+                .extracting(Review::getReviewId)
+                .containsExactly(first.getReviewId(), second.getReviewId());
+        assertThat(index.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 10, loader))
+                .extracting(Review::getReviewId)
+                .containsExactly(second.getReviewId(), first.getReviewId());
+        assertThat(index.getReviewsAfter(filmId, Integer.MAX_VALUE, 0, 10, loader)).hasSize(2);
+        assertThat(loads).hasSize(2);
+    }
+
+    @Test
+    public void testReviewUpdateIsOneStatement() {
+        User user = userStorage.postUser(User.builder()
+                .name("Test user")
+                .email("user@mail.ru")
+                .login("user")
+                .birthday(LocalDate.of(2000, 10, 8))
+                .build()).orElseThrow();
+        Film film = createFilms().get(0);
+        Review review = reviewStorage.postReview(Review.builder()
+                .content("Bad film")
+                .isPositive(false)
+                .filmId(film.getId())
+                .userId(user.getId())
+                .build()).orElseThrow();
+        reviewStorage.putLikeToReview(review.getReviewId(), user.getId());
+
+        Review update = Review.builder()
+                .reviewId(review.getReviewId())
+                .content("Not very bad film")
+                .isPositive(true)
+                .filmId(film.getId())
+                .userId(user.getId())
+                .build();
+        List<Optional<Review>> updated = new ArrayList<>();
+        assertThat(sqlRecorder.record(() -> updated.add(reviewStorage.updateReview(update)))).hasSize(1);
+
+        assertThat(updated.get(0)).hasValueSatisfying(updatedReview -> {
+            assertThat(updatedReview.getContent()).isEqualTo("Not very bad film");
+            assertThat(updatedReview.getIsPositive()).isTrue();
+            assertThat(updatedReview.getUseful()).isEqualTo(1);
+        });
+        assertThat(reviewStorage.getReviewById(review.getReviewId())).isEqualTo(updated.get(0));
+
+        update.setReviewId(review.getReviewId() + 1);
+        assertThat(reviewStorage.updateReview(update)).isEmpty();
+    }
+
+    @Test
+    public void testFilmByIdIsServedFromCache() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            users.add(userStorage.postUser(User.builder()
+                    .name("Liker " + i)
+                    .email("liker" + i + "@mail.ru")
+                    .login("liker" + i)
+                    .birthday(LocalDate.of(2000, 10, 8))
+                    .build()).orElseThrow());
+        }
+        int filmId = createFilms().get(0).getId();
+
+        // Первое обращение загружает фильм из бд, следующие обходятся без бд
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmById(filmId))).isNotEmpty();
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmById(filmId))).isEmpty();
+
+        // Изменения объекта не попадают в кэш
+        filmStorage.getFilmById(filmId).orElseThrow().getLikes().clear();
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getLikes()).hasSize(1);
+        filmStorage.getFilmById(filmId).orElseThrow().getLikes().add(new Like(filmId, users.get(1).getId()));
+        Film copy = filmStorage.getFilmById(filmId).orElseThrow();
+        copy.getLikes().remove(copy.getLikes().iterator().next());
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getLikes()).hasSize(1);
+
+        // Лайк убирает фильм из кэша
+        filmStorage.putLikeToFilm(filmId, users.get(0).getId());
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getLikes()).hasSize(2);
+        filmStorage.deleteLikeFromFilm(filmId, users.get(0).getId());
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getLikes()).hasSize(1);
+
+        // Обновление фильма тоже
+        Film film = filmStorage.getFilmById(filmId).orElseThrow();
+        film.setName("Updated film");
+        filmStorage.putFilm(film);
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getName()).isEqualTo("Updated film");
+
+        // Изменение режиссёра убирает из кэша его фильмы
+        Director director = film.getDirectors().get(0);
+        director.setName("Updated director");
+        directorService.updateDirector(director);
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmById(filmId))).isNotEmpty();
+        assertThat(filmStorage.getFilmById(filmId).orElseThrow().getDirectors())
+                .extracting(Director::getName).containsExactly("Updated director");
+
+        // Удалённый фильм не находится
+        filmStorage.deleteFilm(filmId);
+        assertThat(filmStorage.getFilmById(filmId)).isEmpty();
+    }
+
+    @Test
+    public void testUserUpdateEvictsFilmsWithChangedLikes() {
+        User user = userStorage.postUser(User.builder()
+                .name("Liker")
+                .email("liker@mail.ru")
+                .login("liker")
+                .birthday(LocalDate.of(2000, 10, 8))
+                .build()).orElseThrow();
+        List<Film> films = createFilms();
+        int oldFilmId = films.get(0).getId();
+        int newFilmId = films.get(1).getId();
+        int otherFilmId = films.get(2).getId();
+        filmStorage.putLikeToFilm(oldFilmId, user.getId());
+
+        filmStorage.getFilmById(oldFilmId);
+        filmStorage.getFilmById(newFilmId);
+        filmStorage.getFilmById(otherFilmId);
+
+        // Пользователь переносит лайк со старого фильма на новый
+        User update = userStorage.getUserById(user.getId()).orElseThrow();
+        update.getLikes().clear();
+        update.getLikes().add(new Like(newFilmId, user.getId()));
+        userService.putUser(update);
+
+        assertThat(filmStorage.getFilmById(oldFilmId).orElseThrow().getLikes()).hasSize(1);
+        assertThat(filmStorage.getFilmById(newFilmId).orElseThrow().getLikes()).hasSize(3);
+        // Фильм, лайки которого не менялись, остался в кэше
+        assertThat(sqlRecorder.record(() -> filmStorage.getFilmById(otherFilmId))).isEmpty();
+    }
+
+    @Test
+    public void testExistenceChecksAreOneStatement() {
+        int filmId = createFilms().get(FILMS_COUNT - 1).getId();
+        int userId = userStorage.getUsersAfter(0, 1, View.SUMMARY).get(0).getId();
+
+        assertThat(sqlRecorder.record(() -> assertThat(userStorage.existsUser(userId)).isTrue())).hasSize(1);
+        assertThat(sqlRecorder.record(() -> assertThat(userStorage.existsUser(-1)).isFalse())).hasSize(1);
+        assertThat(sqlRecorder.record(() -> assertThat(filmStorage.existsFilm(filmId)).isTrue())).hasSize(1);
+        assertThat(sqlRecorder.record(() -> assertThat(filmStorage.existsFilm(-1)).isFalse())).hasSize(1);
+
+        // Фильм из кэша проверяется без бд, и проверки не считаются промахами кэша
+        filmStorage.getFilmById(filmId);
+        double misses = meterRegistry.get("cache.gets").tags("cache", "films", "result", "miss").functionCounter().count();
+        assertThat(sqlRecorder.record(() -> assertThat(filmStorage.existsFilm(filmId)).isTrue())).isEmpty();
+        assertThat(filmStorage.existsFilm(-1)).isFalse();
+        assertThat(meterRegistry.get("cache.gets").tags("cache", "films", "result", "miss").functionCounter().count())
+                .isEqualTo(misses);
+
+        filmStorage.deleteFilm(filmId);
+        assertThat(filmStorage.existsFilm(filmId)).isFalse();
+        userStorage.deleteUser(userId);
+        assertThat(userStorage.existsUser(userId)).isFalse();
+    }
+
+    private List<Film> createFilms() {
+        Director director = directorStorage.createDirector(new Director(0, "Test director"));
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            users.add(userStorage.postUser(User.builder()
+                    .name("Test user " + i)
+                    .email("user" + i + "@mail.ru")
+                    .login("user" + i)
+                    .birthday(LocalDate.of(2000, 10, 8))
+                    .build()).orElseThrow());
+        }
+
+        // У i-го фильма i + 1 лайк, так что самый популярный - последний
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < FILMS_COUNT; i++) {
+            Film film = Film.builder()
+                    .name("Test film " + i)
+                    .description("Test test")
+                    .releaseDate(LocalDate.of(2002, 10, 22))
+                    .duration(100)
+                    .mpa(new Mpa(1, "G"))
+                    .build();
+            film.getGenres().add(new Genre(1, "Комедия"));
+            film.getGenres().add(new Genre(2, "Драма"));
+            film.getDirectors().add(director);
+            film = filmStorage.postFilm(film).orElseThrow();
+            for (int j = 0; j <= i; j++) {
+                filmStorage.putLikeToFilm(film.getId(), users.get(j).getId());
+            }
+            films.add(film);
+        }
+        return films;
+    }
+}